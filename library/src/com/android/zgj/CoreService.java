@@ -22,6 +22,7 @@ public class CoreService extends Service {
 	public void onCreate() {
 		super.onCreate();
 		
+		MultiprocessSharedPreferences.setNotifyValuesEnabled(true); // 监听回调中的getString()直接使用通知中的值；
 		mSharedPreferences = MultiprocessSharedPreferences.getSharedPreferences(this, SP_NAME, Context.MODE_PRIVATE);
 		Log.d(TAG, "onCreate." + SP_KEY + " = " + mSharedPreferences.getString(SP_KEY, null));
 		mOnSharedPreferenceChangeListener = new OnSharedPreferenceChangeListener() {
@@ -0,0 +1,105 @@
+package com.android.zgj;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.android.zgj.utils.MultiprocessSharedPreferences;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * 变更通知的端到端延迟：从commit()开始到本进程的OnSharedPreferenceChangeListener被回调，对比Messenger和广播两种通知方式；<br>
+ * 运行在单独的:latency进程中，ContentProvider在:core进程，写入和通知都要跨进程；通知方式在进程内只能选择一次，每次运行结束后退出进程；<br>
+ * 运行：adb shell am startservice -n com.android.zgj/.NotifyLatencyBenchmark --ez messenger false --ei iterations 200，结果输出到logcat；
+ */
+public class NotifyLatencyBenchmark extends Service {
+	private static final String TAG = "NotifyLatencyBenchmark";
+	private static final String SP_NAME = "notify_latency";
+	private static final String SP_KEY = "time";
+	private static final String EXTRA_MESSENGER = "messenger";
+	private static final String EXTRA_ITERATIONS = "iterations";
+	private static final int WARMUP = 20;
+	private static final long TIMEOUT = 5000;
+	private boolean mRunning;
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		if (!mRunning) {
+			mRunning = true;
+			final boolean messenger = intent == null || intent.getBooleanExtra(EXTRA_MESSENGER, true);
+			final int iterations = intent == null ? 200 : intent.getIntExtra(EXTRA_ITERATIONS, 200);
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runBenchmark(messenger, iterations);
+					} catch (InterruptedException e) {
+						Log.e(TAG, "interrupted", e);
+					} finally {
+						stopSelf();
+						Process.killProcess(Process.myPid()); // 下次运行重新选择通知方式；
+					}
+				}
+			}, TAG).start();
+		}
+		return START_NOT_STICKY;
+	}
+
+	/**
+	 * 每次写入一个新的值，等到通知回调后再写下一个，不让通知排队；回调在主线程，写入在这个线程；
+	 */
+	private void runBenchmark(boolean messenger, int iterations) throws InterruptedException {
+		MultiprocessSharedPreferences.setMessengerChannelEnabled(messenger);
+		SharedPreferences sharedPreferences = MultiprocessSharedPreferences.getSharedPreferences(this, SP_NAME, Context.MODE_PRIVATE);
+		final Semaphore received = new Semaphore(0);
+		final long[] receivedTime = new long[1];
+		OnSharedPreferenceChangeListener listener = new OnSharedPreferenceChangeListener() {
+			@Override
+			public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+				receivedTime[0] = System.nanoTime(); // 各进程共用同一个单调时钟；
+				received.release();
+			}
+		};
+		sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+		long[] latencies = new long[iterations];
+		int count = 0;
+		for (int i = 0; i < WARMUP + iterations; i++) {
+			received.drainPermits();
+			long start = System.nanoTime();
+			if (!sharedPreferences.edit().putLong(SP_KEY, start).commit()) {
+				Log.e(TAG, "commit failed");
+				break;
+			}
+			if (!received.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS)) {
+				Log.e(TAG, "no notification in " + TIMEOUT + "ms");
+				break;
+			}
+			if (i >= WARMUP) {
+				latencies[count++] = receivedTime[0] - start;
+			}
+		}
+		sharedPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+		print(messenger ? "messenger" : "broadcast", latencies, count);
+	}
+
+	private static void print(String channel, long[] latencies, int count) {
+		if (count == 0) {
+			return;
+		}
+		Arrays.sort(latencies, 0, count);
+		Log.i(TAG, String.format("%-10s %4d notifications, min %.3f ms, median %.3f ms, p95 %.3f ms, max %.3f ms", channel, count, latencies[0] / 1e6, latencies[count / 2] / 1e6, latencies[(int) (count * 0.95)] / 1e6, latencies[count - 1] / 1e6));
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return null;
+	}
+}
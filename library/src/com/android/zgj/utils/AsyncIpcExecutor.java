@@ -0,0 +1,261 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MultiprocessSharedPreferences异步接口使用的跨进程调用线程池，不依赖Android API；<br>
+ * 1、线程数和等待队列（包括排队的写入）都有上限，队列满时以RejectedExecutionException结束，不阻塞调用线程；<br>
+ * 2、同一时间相同的读取（同一个name、key和默认值）共用一次跨进程调用；<br>
+ * 3、提交的写入按提交顺序依次执行，前一个完成后才开始下一个；
+ */
+final class AsyncIpcExecutor {
+	static final int THREAD_COUNT = 2;
+	static final int QUEUE_CAPACITY = 128;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private final ThreadPoolExecutor mExecutor;
+	private final HashMap<Object, Task<?>> mInFlight = new HashMap<Object, Task<?>>();
+	private final LinkedList<Task<?>> mSerialTasks = new LinkedList<Task<?>>();
+	private Task<?> mActiveSerialTask;
+	private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+	private final AtomicLong mCompletedCount = new AtomicLong();
+	private final AtomicLong mDedupedCount = new AtomicLong();
+	private final AtomicLong mRejectedCount = new AtomicLong();
+
+	AsyncIpcExecutor(final String threadName) {
+		mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, threadName + "-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mExecutor.allowCoreThreadTimeOut(true); // 空闲时不保留线程；
+	}
+
+	/**
+	 * 提交一次读取，有相同的读取正在进行时直接共用它的结果；
+	 *
+	 * @param group 所属的name，用于{@link #detachInFlight(String)}；
+	 * @param key 相同的读取使用equals()相等的key；
+	 * @param executor 执行callback的Executor，为null时在跨进程调用的线程中执行；
+	 * @param callback 可以为null；
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Task<T> submit(String group, Object key, Callable<T> callable, Executor executor, MultiprocessSharedPreferences.AsyncCallback<T> callback) {
+		Task<T> task;
+		synchronized (mInFlight) {
+			task = (Task<T>) mInFlight.get(key);
+			if (task != null) {
+				mDedupedCount.incrementAndGet();
+				task.addCallback(executor, callback);
+				return task;
+			}
+			task = new Task<T>(this, group, key, callable);
+			task.addCallback(executor, callback);
+			mInFlight.put(key, task);
+		}
+		execute(task);
+		return task;
+	}
+
+	/**
+	 * 提交一次写入，按提交顺序依次执行；等待执行的任务（包括排队的写入）已达到{@link #QUEUE_CAPACITY}时以RejectedExecutionException结束；
+	 */
+	<T> Task<T> submitSerial(Callable<T> callable, Executor executor, MultiprocessSharedPreferences.AsyncCallback<T> callback) {
+		Task<T> task = new Task<T>(this, null, null, callable);
+		task.addCallback(executor, callback);
+		boolean accepted = false;
+		synchronized (mSerialTasks) {
+			if (getQueueDepth() < QUEUE_CAPACITY) {
+				mSerialTasks.add(task);
+				if (mActiveSerialTask == null) {
+					scheduleNextSerialTask();
+				}
+				accepted = true;
+			}
+		}
+		if (accepted) {
+			recordQueueDepth(); // 排队等待前一个写入的不经过execute()；
+			return task;
+		}
+		mRejectedCount.incrementAndGet();
+		task.reject(new RejectedExecutionException("Serial queue is full: " + QUEUE_CAPACITY));
+		return task;
+	}
+
+	/**
+	 * 本进程修改了group之后，之后的读取不再共用修改之前开始的跨进程调用，保证能读到自己的修改；
+	 */
+	void detachInFlight(String group) {
+		synchronized (mInFlight) {
+			for (Iterator<Task<?>> iterator = mInFlight.values().iterator(); iterator.hasNext();) {
+				if (group.equals(iterator.next().mGroup)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 等待执行的任务数，包括排队等待前一个写入完成的写入；
+	 */
+	int getQueueDepth() {
+		synchronized (mSerialTasks) {
+			return mExecutor.getQueue().size() + mSerialTasks.size();
+		}
+	}
+
+	MultiprocessSharedPreferences.AsyncMetrics getMetrics() {
+		return new MultiprocessSharedPreferences.AsyncMetrics(getQueueDepth(), mMaxQueueDepth.get(), mExecutor.getActiveCount(), mCompletedCount.get(), mDedupedCount.get(), mRejectedCount.get());
+	}
+
+	private void execute(Task<?> task) {
+		try {
+			mExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			mRejectedCount.incrementAndGet();
+			task.reject(e);
+			return;
+		}
+		recordQueueDepth();
+	}
+
+	private void recordQueueDepth() {
+		int depth = getQueueDepth();
+		int max = mMaxQueueDepth.get();
+		while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth)) {
+			max = mMaxQueueDepth.get();
+		}
+	}
+
+	private void scheduleNextSerialTask() {
+		mActiveSerialTask = mSerialTasks.poll();
+		if (mActiveSerialTask != null) {
+			execute(mActiveSerialTask);
+		}
+	}
+
+	private void onTaskDone(Task<?> task) {
+		mCompletedCount.incrementAndGet();
+		if (task.mKey != null) {
+			synchronized (mInFlight) {
+				if (mInFlight.get(task.mKey) == task) {
+					mInFlight.remove(task.mKey);
+				}
+			}
+		} else {
+			synchronized (mSerialTasks) {
+				if (mActiveSerialTask == task) {
+					scheduleNextSerialTask();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 可能被多个调用方共用，不支持取消；
+	 */
+	static final class Task<T> extends FutureTask<T> {
+		private final AsyncIpcExecutor mOwner;
+		private final String mGroup;
+		private final Object mKey;
+		private List<Map.Entry<Executor, MultiprocessSharedPreferences.AsyncCallback<T>>> mCallbacks;
+		private boolean mDone;
+
+		Task(AsyncIpcExecutor owner, String group, Object key, Callable<T> callable) {
+			super(callable);
+			mOwner = owner;
+			mGroup = group;
+			mKey = key;
+		}
+
+		void addCallback(Executor executor, MultiprocessSharedPreferences.AsyncCallback<T> callback) {
+			if (callback == null) {
+				return;
+			}
+			synchronized (this) {
+				if (!mDone) {
+					if (mCallbacks == null) {
+						mCallbacks = new ArrayList<Map.Entry<Executor, MultiprocessSharedPreferences.AsyncCallback<T>>>(1);
+					}
+					mCallbacks.add(new AbstractMap.SimpleImmutableEntry<Executor, MultiprocessSharedPreferences.AsyncCallback<T>>(executor, callback));
+					return;
+				}
+			}
+			deliver(executor, callback);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		protected void done() {
+			mOwner.onTaskDone(this);
+			List<Map.Entry<Executor, MultiprocessSharedPreferences.AsyncCallback<T>>> callbacks;
+			synchronized (this) {
+				mDone = true;
+				callbacks = mCallbacks;
+				mCallbacks = null;
+			}
+			if (callbacks != null) {
+				for (Map.Entry<Executor, MultiprocessSharedPreferences.AsyncCallback<T>> entry : callbacks) {
+					deliver(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		private void reject(RejectedExecutionException e) {
+			setException(e);
+		}
+
+		private void deliver(Executor executor, final MultiprocessSharedPreferences.AsyncCallback<T> callback) {
+			Runnable runnable = new Runnable() {
+				@Override
+				public void run() {
+					T result;
+					try {
+						result = get(); // 已经完成，不会阻塞；
+					} catch (ExecutionException e) {
+						callback.onError(e.getCause());
+						return;
+					} catch (InterruptedException e) {
+						callback.onError(e);
+						return;
+					}
+					callback.onResult(result);
+				}
+			};
+			if (executor == null) {
+				runnable.run();
+			} else {
+				executor.execute(runnable);
+			}
+		}
+	}
+}
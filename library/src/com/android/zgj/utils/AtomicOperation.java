@@ -0,0 +1,121 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 在ContentProvider中执行的原子操作（incrementInt()、compareAndSet()、putIfAbsent()、getAndRemove()）的编码和计算，不依赖Android API；<br>
+ * 客户端传递的操作：{@link PreferencesCodec}编码的Map，operation(int) + value（操作数） + expect（compareAndSet()的期望值）；
+ * 返回的结果：同样编码为只有value一项的Map，null也能区分于“没有结果”；<br>
+ * ContentProvider在合并写入时按key当前的值（包括同一组中之前的写入）调用{@link #apply(String, Object, Map)}计算修改和结果；
+ */
+final class AtomicOperation {
+	static final int INCREMENT = 1;
+	static final int COMPARE_AND_SET = 2;
+	static final int PUT_IF_ABSENT = 3;
+	static final int GET_AND_REMOVE = 4;
+	private static final String KEY_OPERATION = "operation";
+	private static final String KEY_VALUE = "value";
+	private static final String KEY_EXPECT = "expect";
+
+	final int operation;
+	private final Object mOperand;
+	private final Object mExpect;
+	Object result; // apply()之后的结果；
+	String error; // apply()失败时的原因，例如原值的类型不对；
+
+	private AtomicOperation(int operation, Object operand, Object expect) {
+		this.operation = operation;
+		mOperand = operand;
+		mExpect = expect;
+	}
+
+	static byte[] encode(int operation, Object expect, Object operand) {
+		HashMap<String, Object> operands = new HashMap<String, Object>();
+		operands.put(KEY_OPERATION, operation);
+		operands.put(KEY_VALUE, operand);
+		operands.put(KEY_EXPECT, expect);
+		return PreferencesCodec.encodeMap(operands);
+	}
+
+	/**
+	 * @return data格式不对时返回null；
+	 */
+	static AtomicOperation decode(byte[] data) {
+		HashMap<String, Object> operands;
+		try {
+			operands = PreferencesCodec.decodeMap(data);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (operands == null || !(operands.get(KEY_OPERATION) instanceof Integer)) {
+			return null;
+		}
+		return new AtomicOperation((Integer) operands.get(KEY_OPERATION), operands.get(KEY_VALUE), operands.get(KEY_EXPECT));
+	}
+
+	static byte[] encodeResult(Object result) {
+		return PreferencesCodec.encodeMap(Collections.singletonMap(KEY_VALUE, result));
+	}
+
+	static Object decodeResult(byte[] data) {
+		Map<String, Object> map = PreferencesCodec.decodeMap(data);
+		return map == null ? null : map.get(KEY_VALUE);
+	}
+
+	/**
+	 * 根据key当前的值计算结果，需要写入时把修改放入modified；
+	 *
+	 * @param current key当前的值，不存在时为null；
+	 * @return 是否需要写入；不需要写入时{@link #error}为null表示操作本身成功（例如compareAndSet()比较不相等）；
+	 */
+	boolean apply(String key, Object current, Map<String, Object> modified) {
+		switch (operation) {
+			case INCREMENT: {
+				if (!(mOperand instanceof Integer || mOperand instanceof Long) || current != null && current.getClass() != mOperand.getClass()) {
+					error = (current == null ? "null" : current.getClass().getName()) + " cannot be cast to " + (mOperand == null ? "null" : mOperand.getClass().getName());
+					return false;
+				}
+				Object value;
+				if (mOperand instanceof Long) {
+					value = (current == null ? 0L : (Long) current) + (Long) mOperand;
+				} else {
+					value = (current == null ? 0 : (Integer) current) + (Integer) mOperand;
+				}
+				result = value;
+				modified.put(key, value);
+				return true;
+			}
+			case COMPARE_AND_SET: {
+				boolean matched = current == null ? mExpect == null : current.equals(mExpect);
+				result = matched;
+				if (matched) {
+					modified.put(key, mOperand);
+				}
+				return matched;
+			}
+			case PUT_IF_ABSENT:
+				if (current != null) {
+					result = current;
+					return false;
+				}
+				result = mOperand;
+				modified.put(key, mOperand);
+				return true;
+			case GET_AND_REMOVE:
+				result = current;
+				if (current == null) {
+					return false;
+				}
+				modified.put(key, null);
+				return true;
+			default:
+				error = "Unknown operation: " + operation;
+				return false;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 跨多个name的批量修改的编码和重做日志，不依赖Android API；<br>
+ * 批量修改的编码：数量(int) + 逐项[name + mode(int) + clear(boolean) + 修改（{@link PreferencesCodec}编码）]，客户端到ContentProvider的传递和日志使用同一种编码；<br>
+ * ContentProvider先把批量修改写入日志文件并同步到磁盘，再逐个name写入，每写完一个name就用{@link #rewrite(File, byte[])}把剩余的修改原子地替换日志，全部写完后删除日志；
+ * 中途进程崩溃时，下次启动时在处理任何请求之前只补写日志中剩余的name；<br>
+ * 重做不是幂等的：已写入的name再写一遍会覆盖期间其他客户端的修改，clear()还会删除之后写入的key，所以已写入的name必须及时从日志中去掉，
+ * 重做时最多重写崩溃时正在写入的那一个name；<br>
+ * 日志文件格式：数据长度(int) + CRC32(int) + 数据，校验不通过（写日志时崩溃）的直接删除；
+ */
+final class BatchJournal {
+	private static final String PREFIX = "batch-";
+	private static final String SUFFIX = ".journal";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private BatchJournal() {
+	}
+
+	static byte[] encode(List<Entry> entries) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(entries.size());
+			for (Entry entry : entries) {
+				PreferencesCodec.writeString(out, entry.name);
+				out.writeInt(entry.mode);
+				out.writeBoolean(entry.clear);
+				PreferencesCodec.writeMap(out, entry.modified);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // ByteArrayOutputStream不会抛出IOException
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @throws IllegalArgumentException 格式不对；
+	 */
+	static List<Entry> decode(byte[] data) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			int size = in.readInt();
+			if (size < 0) {
+				throw new IOException("Invalid size: " + size);
+			}
+			List<Entry> entries = new ArrayList<Entry>(size);
+			for (int i = 0; i < size; i++) {
+				String name = PreferencesCodec.readString(in);
+				int mode = in.readInt();
+				boolean clear = in.readBoolean();
+				entries.add(new Entry(name, mode, clear, PreferencesCodec.readMap(in)));
+			}
+			return entries;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("decode", e);
+		}
+	}
+
+	/**
+	 * 写入日志并同步到磁盘；
+	 *
+	 * @param sequence 日志的序号，重做时按序号从小到大；
+	 */
+	static File write(File dir, long sequence, byte[] data) throws IOException {
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		File file = new File(dir, PREFIX + sequence + SUFFIX);
+		writeFile(file, data);
+		return file;
+	}
+
+	/**
+	 * 用剩余的修改替换日志：先写入临时文件并同步到磁盘，再重命名覆盖，崩溃时日志要么是原来的要么是新的，序号不变；
+	 */
+	static void rewrite(File journal, byte[] data) throws IOException {
+		File tmp = new File(journal.getPath() + TMP_SUFFIX);
+		writeFile(tmp, data);
+		if (!tmp.renameTo(journal)) {
+			tmp.delete();
+			throw new IOException("rename failed: " + tmp);
+		}
+	}
+
+	private static void writeFile(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			DataOutputStream dataOut = new DataOutputStream(out);
+			dataOut.writeInt(data.length);
+			dataOut.writeInt(checksum(data));
+			dataOut.write(data);
+			dataOut.flush();
+			out.getFD().sync();
+		} catch (IOException e) {
+			out.close();
+			file.delete();
+			throw e;
+		}
+		out.close();
+	}
+
+	/**
+	 * @return 日志中的数据，写日志时崩溃导致数据不完整时返回null；
+	 */
+	static byte[] read(File file) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			int length = in.readInt();
+			int crc = in.readInt();
+			if (length < 0 || length > file.length()) {
+				return null;
+			}
+			byte[] data = new byte[length];
+			in.readFully(data);
+			return checksum(data) == crc ? data : null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					if (MultiprocessSharedPreferences.DEBUG) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 还没有删除的日志，按序号从小到大；{@link #rewrite(File, byte[])}中途崩溃留下的临时文件直接删除，原日志仍然完整；
+	 */
+	static List<File> list(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		List<File> journals = new ArrayList<File>();
+		for (File file : files) {
+			if (getSequence(file) >= 0) {
+				journals.add(file);
+			} else if (file.getName().endsWith(SUFFIX + TMP_SUFFIX)) {
+				file.delete();
+			}
+		}
+		Collections.sort(journals, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = getSequence(lhs);
+				long r = getSequence(rhs);
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		return journals;
+	}
+
+	private static long getSequence(File file) {
+		String name = file.getName();
+		if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static int checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	static final class Entry {
+		final String name;
+		final int mode;
+		final boolean clear;
+		final HashMap<String, Object> modified; // value为null表示删除这个key；
+
+		Entry(String name, int mode, boolean clear, Map<String, Object> modified) {
+			this.name = name;
+			this.mode = mode;
+			this.clear = clear;
+			this.modified = modified instanceof HashMap ? (HashMap<String, Object>) modified : new HashMap<String, Object>(modified);
+		}
+	}
+}
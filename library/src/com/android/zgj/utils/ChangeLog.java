@@ -0,0 +1,103 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * ContentProvider中name最近的修改记录，用于{@link MultiprocessSharedPreferences#getChangesSince(long, long)}的增量同步，不依赖Android API；<br>
+ * 每次成功写入按版本号记录一条，超过maxSize条时丢弃最早的；包含大的字符串的修改不保留在内存中，之前的序号都需要读取全部数据；
+ */
+final class ChangeLog {
+	private final LinkedList<Entry> mEntries = new LinkedList<Entry>();
+	private final int mMaxSize;
+	private final int mLargeValueLength;
+	private long mBaseVersion; // 最早一条记录之前的版本号，不早于它的序号可以增量返回；
+
+	/**
+	 * @param baseVersion 第一条记录之前的版本号；
+	 * @param maxSize 最多保留的记录数；
+	 * @param largeValueLength 超过这个长度的字符串不保留；
+	 */
+	ChangeLog(long baseVersion, int maxSize, int largeValueLength) {
+		mBaseVersion = baseVersion;
+		mMaxSize = maxSize;
+		mLargeValueLength = largeValueLength;
+	}
+
+	/**
+	 * @param modified 写入后不再修改，直接引用；
+	 */
+	void add(long version, boolean clear, HashMap<String, Object> modified) {
+		if (isLarge(modified)) {
+			mEntries.clear();
+			mBaseVersion = version;
+			return;
+		}
+		mEntries.add(new Entry(version, clear, modified));
+		if (mEntries.size() > mMaxSize) {
+			mBaseVersion = mEntries.removeFirst().version;
+		}
+	}
+
+	/**
+	 * 按版本号从小到大合并客户端上一次同步之后的修改；
+	 *
+	 * @param log name的修改记录，还没有写入过时为null；
+	 * @param generation 当前ContentProvider的启动标识；
+	 * @param version name当前的版本号；
+	 * @param sinceGeneration 客户端上一次同步时的启动标识；
+	 * @param sequence 客户端上一次同步到的版本号；
+	 * @return 不是本次启动的序号、序号无效或者早于保留的修改记录时返回null，由客户端读取全部数据；
+	 */
+	static Changes getChangesSince(ChangeLog log, long generation, long version, long sinceGeneration, long sequence) {
+		if (sinceGeneration != generation || sequence < 0 || sequence > version || log != null && sequence < log.mBaseVersion) {
+			return null;
+		}
+		Changes changes = new Changes();
+		if (log != null) {
+			for (Entry entry : log.mEntries) {
+				if (entry.version > sequence) {
+					if (entry.clear) {
+						changes.clear = true;
+						changes.modified.clear();
+					}
+					changes.modified.putAll(entry.modified);
+				}
+			}
+		}
+		return changes;
+	}
+
+	private boolean isLarge(Map<String, Object> modified) {
+		for (Object v : modified.values()) {
+			if (v instanceof String && ((String) v).length() > mLargeValueLength) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 合并后的修改：clear为其中是否有清空（modified为清空之后的修改），删除的key对应null；
+	 */
+	static final class Changes {
+		boolean clear;
+		final HashMap<String, Object> modified = new HashMap<String, Object>();
+	}
+
+	private static final class Entry {
+		final long version;
+		final boolean clear;
+		final HashMap<String, Object> modified;
+
+		Entry(long version, boolean clear, HashMap<String, Object> modified) {
+			this.version = version;
+			this.clear = clear;
+			this.modified = modified;
+		}
+	}
+}
@@ -0,0 +1,660 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写日志的存储引擎：每次写入把这批修改编码为一条带CRC32校验的记录追加到日志文件末尾，写入代价只与修改的大小有关，不随文件大小增长；<br>
+ * 打开时按顺序重放日志恢复数据，末尾写了一半或校验失败的记录（写入时进程崩溃、断电）被截断丢弃；文件头损坏或者版本未知时整个文件改名为.corrupt保留，从空的数据开始；<br>
+ * 日志中追加的数据超过上次压缩后的大小时，在后台线程把当前数据重写为一条记录（压缩），压缩期间新追加的记录接在后面，不阻塞写入；<br>
+ *
+ * 使用方法：在ContentProvider所在进程中调用MultiprocessSharedPreferences.setStorageEngineFactory(name, JournalStorageEngine.FACTORY)；
+ * 第一次使用时导入系统SharedPreferences中name原有的数据（直接解析XML文件，导入完成后才创建日志文件），之后只读写日志文件；<br>
+ * 可以被ContentProvider的内存预算卸载，卸载后下次访问时重新从日志加载；设置了内存预算时，没有单独指定存储引擎的name默认使用它；
+ *
+ * 文件格式：MAGIC(int) + 版本(int) + 逐条记录[长度(int) + CRC32(int) + flags(byte) + 修改的Map（{@link PreferencesCodec}编码，null表示删除）]；
+ */
+public final class JournalStorageEngine implements StorageEngine, StorageEngine.Unloadable {
+	private static final String DIR_NAME = "multiprocess_shared_prefs";
+	private static final String SUFFIX = ".journal";
+	private static final String IMPORT_SUFFIX = ".import";
+	private static final String CORRUPT_SUFFIX = ".corrupt";
+	private static final String TAG = "JournalStorageEngine";
+	private static final String SHARED_PREFS_DIR_NAME = "shared_prefs";
+	private static final String BACKUP_SUFFIX = ".bak";
+	private static final int MAGIC = 0x4D50534A; // "MPSJ"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 9;
+	private static final byte FLAG_CLEAR = 1;
+	private static final long COMPACT_MIN_SIZE = 64 * 1024;
+	private static final int ENTRY_SIZE = 32; // HashMap的节点；
+	private static final int STRING_SIZE = 40; // String和char[]的对象头；
+	private static final int BOXED_SIZE = 16; // Integer、Long、Float、Boolean；
+	private static final int SET_SIZE = 64; // HashSet和内部的HashMap；
+
+	public static final Factory FACTORY = new Factory() {
+		@Override
+		public StorageEngine create(Context context, String name, int mode) {
+			File file = new File(context.getDir(DIR_NAME, Context.MODE_PRIVATE), name + SUFFIX);
+			if (!file.exists()) {
+				Map<String, Object> map = readPreferencesXml(new File(new File(context.getFilesDir().getParentFile(), SHARED_PREFS_DIR_NAME), name + ".xml"));
+				if (map == null || !importFrom(map, file)) {
+					// 日志文件仍不存在，这次继续使用系统SharedPreferences（在本进程中一直缓存），期间的修改在下次启动时一起导入；
+					return new MultiprocessSharedPreferences.SystemStorageEngine(context.getSharedPreferences(name, mode));
+				}
+			}
+			return new JournalStorageEngine(file);
+		}
+	};
+
+	/**
+	 * 把原有的数据作为第一条记录写入临时文件并同步到磁盘，再重命名为日志文件；<br>
+	 * 导入中途崩溃或失败时日志文件不存在，下次启动时重新导入，不会出现只有文件头的日志导致原有数据丢失；
+	 *
+	 * @return 是否已导入；
+	 */
+	static boolean importFrom(Map<String, ?> map, File file) {
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		File tmp = new File(file.getPath() + IMPORT_SUFFIX);
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.write(encodeRecord(FLAG_CLEAR, PreferencesCodec.encodeMap(map)));
+			dos.flush();
+			out.getFD().sync();
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				throw new IOException("rename failed: " + tmp);
+			}
+			syncDirectory(parent);
+			return true;
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+			tmp.delete();
+			return false;
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * 直接解析系统SharedPreferences的XML文件，不通过Context.getSharedPreferences()：系统在进程中一直缓存打开过的SharedPreferences，导入后不再使用也无法释放；<br>
+	 * 与系统相同，存在.bak时说明上次写入没有完成，以.bak为准；
+	 *
+	 * @return 文件不存在时返回空的Map，无法解析时返回null；
+	 */
+	static Map<String, Object> readPreferencesXml(File file) {
+		File backup = new File(file.getPath() + BACKUP_SUFFIX);
+		if (backup.exists()) {
+			file = backup;
+		}
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		if (!file.exists()) {
+			return map;
+		}
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file));
+			XmlPullParser parser = Xml.newPullParser();
+			parser.setInput(in, "UTF-8");
+			String setName = null;
+			HashSet<String> set = null;
+			for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+				if (event == XmlPullParser.END_TAG && "set".equals(parser.getName()) && set != null) {
+					map.put(setName, set);
+					set = null;
+				} else if (event == XmlPullParser.START_TAG) {
+					String tag = parser.getName();
+					String key = parser.getAttributeValue(null, "name");
+					String value = parser.getAttributeValue(null, "value");
+					if ("set".equals(tag)) {
+						setName = key;
+						set = new HashSet<String>();
+					} else if ("string".equals(tag)) {
+						String text = parser.nextText();
+						if (set != null) {
+							set.add(text);
+						} else {
+							map.put(key, text);
+						}
+					} else if ("int".equals(tag)) {
+						map.put(key, Integer.parseInt(value));
+					} else if ("long".equals(tag)) {
+						map.put(key, Long.parseLong(value));
+					} else if ("float".equals(tag)) {
+						map.put(key, Float.parseFloat(value));
+					} else if ("boolean".equals(tag)) {
+						map.put(key, Boolean.valueOf(value));
+					}
+				}
+			}
+			return map;
+		} catch (XmlPullParserException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (NumberFormatException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} finally {
+			closeQuietly(in);
+		}
+		return null;
+	}
+
+	private final File mFile;
+	private final Object mLock = new Object();
+	private final HashMap<String, Object> mMap = new HashMap<String, Object>();
+	private FileOutputStream mOutput;
+	private long mFileSize;
+	private long mMemorySize;
+	private long mCompactedSize;
+	private boolean mCompacting;
+	private boolean mLoaded;
+
+	public JournalStorageEngine(File file) {
+		mFile = file;
+		synchronized (mLock) {
+			load();
+		}
+	}
+
+	@Override
+	public Map<String, ?> getAll() {
+		synchronized (mLock) {
+			ensureLoaded();
+			return new HashMap<String, Object>(mMap);
+		}
+	}
+
+	@Override
+	public Object get(String key) {
+		synchronized (mLock) {
+			ensureLoaded();
+			return mMap.get(key);
+		}
+	}
+
+	@Override
+	public String getString(String key, String defValue) {
+		synchronized (mLock) {
+			ensureLoaded();
+			String v = (String) mMap.get(key);
+			return v != null ? v : defValue;
+		}
+	}
+
+	@Override
+	public int getInt(String key, int defValue) {
+		synchronized (mLock) {
+			ensureLoaded();
+			Integer v = (Integer) mMap.get(key);
+			return v != null ? v : defValue;
+		}
+	}
+
+	@Override
+	public long getLong(String key, long defValue) {
+		synchronized (mLock) {
+			ensureLoaded();
+			Long v = (Long) mMap.get(key);
+			return v != null ? v : defValue;
+		}
+	}
+
+	@Override
+	public float getFloat(String key, float defValue) {
+		synchronized (mLock) {
+			ensureLoaded();
+			Float v = (Float) mMap.get(key);
+			return v != null ? v : defValue;
+		}
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defValue) {
+		synchronized (mLock) {
+			ensureLoaded();
+			Boolean v = (Boolean) mMap.get(key);
+			return v != null ? v : defValue;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Set<String> getStringSet(String key, Set<String> defValues) {
+		synchronized (mLock) {
+			ensureLoaded();
+			Set<String> v = (Set<String>) mMap.get(key);
+			return v != null ? v : defValues;
+		}
+	}
+
+	@Override
+	public boolean contains(String key) {
+		synchronized (mLock) {
+			ensureLoaded();
+			return mMap.containsKey(key);
+		}
+	}
+
+	/**
+	 * 记录先追加到日志，成功后才修改内存中的数据；sync为true时fsync后再返回；
+	 */
+	@Override
+	public boolean write(boolean clear, Map<String, Object> modified, boolean sync) {
+		byte flags = clear ? FLAG_CLEAR : 0;
+		byte[] record = encodeRecord(flags, PreferencesCodec.encodeMap(modified));
+		synchronized (mLock) {
+			ensureLoaded();
+			if (mOutput == null && (mFileSize < HEADER_SIZE || !openOutput())) { // 没有文件头时不能追加记录；
+				return false;
+			}
+			try {
+				mOutput.write(record);
+				if (sync) {
+					mOutput.getFD().sync();
+				}
+			} catch (IOException e) {
+				if (MultiprocessSharedPreferences.DEBUG) {
+					e.printStackTrace();
+				}
+				// 去掉可能写了一半的记录，避免之后追加的记录接在损坏的记录后面无法重放；
+				closeQuietly(mOutput);
+				mOutput = null;
+				truncate(mFileSize);
+				openOutput();
+				return false;
+			}
+			mFileSize += record.length;
+			apply(flags, modified);
+			scheduleCompactIfNeeded();
+			return true;
+		}
+	}
+
+	/**
+	 * @return 按内存中每个key和值的大小估算，不包括日志中已被覆盖的记录，卸载后为0；
+	 */
+	@Override
+	public long getMemorySize() {
+		synchronized (mLock) {
+			return mLoaded ? mMemorySize : 0;
+		}
+	}
+
+	/**
+	 * 每次写入都直接追加到日志文件，卸载时不会丢失修改；正在压缩时不卸载；
+	 */
+	@Override
+	public boolean unload() {
+		synchronized (mLock) {
+			if (!mLoaded || mCompacting) {
+				return false;
+			}
+			closeQuietly(mOutput);
+			mOutput = null;
+			mMap.clear();
+			mMemorySize = 0;
+			mLoaded = false;
+			return true;
+		}
+	}
+
+	private void ensureLoaded() {
+		if (!mLoaded) {
+			load();
+		}
+	}
+
+	private void load() {
+		mLoaded = true;
+		long length = mFile.length();
+		long validSize = 0;
+		if (length >= HEADER_SIZE) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+				if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION) {
+					validSize = HEADER_SIZE;
+					while (validSize + RECORD_HEADER_SIZE <= length) {
+						int size = in.readInt();
+						int crc = in.readInt();
+						byte flags = in.readByte();
+						if (size < 0 || validSize + RECORD_HEADER_SIZE + size > length) {
+							break; // 末尾写了一半的记录；
+						}
+						byte[] payload = new byte[size];
+						in.readFully(payload);
+						if (crc != checksum(flags, payload)) {
+							break;
+						}
+						apply(flags, PreferencesCodec.decodeMap(payload));
+						validSize += RECORD_HEADER_SIZE + size;
+					}
+				}
+			} catch (IOException e) {
+				if (MultiprocessSharedPreferences.DEBUG) {
+					e.printStackTrace();
+				}
+			} finally {
+				closeQuietly(in);
+			}
+		}
+		if (validSize < HEADER_SIZE) { // 新文件或者文件头损坏、版本未知；
+			if (length == 0 || moveCorruptFile()) {
+				validSize = writeHeader() ? HEADER_SIZE : 0;
+			}
+		} else if (validSize < length) {
+			truncate(validSize);
+		}
+		mFileSize = validSize;
+		mCompactedSize = validSize;
+		if (validSize > 0) {
+			openOutput();
+		}
+	}
+
+	/**
+	 * 无法识别的日志文件不能直接覆盖（可能是更新的版本写入的，或者只有文件头损坏），改名保留后再创建新的；
+	 *
+	 * @return 是否已改名，失败时不创建新的日志文件，这次的写入都返回失败；
+	 */
+	private boolean moveCorruptFile() {
+		File corrupt = new File(mFile.getPath() + CORRUPT_SUFFIX);
+		corrupt.delete();
+		boolean moved = mFile.renameTo(corrupt);
+		Log.e(TAG, "Invalid journal header: " + mFile + (moved ? ", moved to " + corrupt : ", rename failed"));
+		return moved;
+	}
+
+	private boolean writeHeader() {
+		File parent = mFile.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(mFile);
+			DataOutputStream dos = new DataOutputStream(out);
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.flush();
+			out.getFD().sync();
+			return true;
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+			return false;
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private boolean openOutput() {
+		try {
+			mOutput = new FileOutputStream(mFile, true);
+			return true;
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+	}
+
+	private void truncate(long size) {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(mFile, "rw");
+			file.setLength(size);
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} finally {
+			closeQuietly(file);
+		}
+	}
+
+	private void apply(byte flags, Map<String, Object> modified) {
+		if ((flags & FLAG_CLEAR) != 0) {
+			mMap.clear();
+			mMemorySize = 0;
+		}
+		for (Map.Entry<String, Object> entry : modified.entrySet()) {
+			String key = entry.getKey();
+			Object old = entry.getValue() == null ? mMap.remove(key) : mMap.put(key, entry.getValue());
+			if (old != null) {
+				mMemorySize -= estimateSize(key, old);
+			}
+			if (entry.getValue() != null) {
+				mMemorySize += estimateSize(key, entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return 一个key和值在堆中的大致字节数：HashMap的节点、String的对象头和char[]、装箱对象；
+	 */
+	static long estimateSize(String key, Object value) {
+		long size = ENTRY_SIZE + estimateSize(key);
+		if (value instanceof String) {
+			size += estimateSize((String) value);
+		} else if (value instanceof Set) {
+			size += SET_SIZE;
+			for (Object v : (Set<?>) value) {
+				size += ENTRY_SIZE + estimateSize((String) v);
+			}
+		} else {
+			size += BOXED_SIZE;
+		}
+		return size;
+	}
+
+	private static long estimateSize(String s) {
+		return STRING_SIZE + 2L * s.length();
+	}
+
+	/**
+	 * 上次压缩后追加的数据超过压缩后的大小时（至少{@link #COMPACT_MIN_SIZE}）开始压缩；
+	 */
+	private void scheduleCompactIfNeeded() {
+		long appended = mFileSize - mCompactedSize;
+		if (!mCompacting && appended > COMPACT_MIN_SIZE && appended > mCompactedSize) {
+			mCompacting = true;
+			MultiprocessSharedPreferences.getBackgroundHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					compact();
+				}
+			});
+		}
+	}
+
+	/**
+	 * 先在锁外把快照写入临时文件，再在锁内补上压缩期间追加的记录，替换日志文件；
+	 */
+	private void compact() {
+		HashMap<String, Object> snapshot;
+		long snapshotSize;
+		synchronized (mLock) {
+			snapshot = new HashMap<String, Object>(mMap);
+			snapshotSize = mFileSize;
+		}
+		File tmp = new File(mFile.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+			byte[] record = encodeRecord(FLAG_CLEAR, PreferencesCodec.encodeMap(snapshot));
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.write(record);
+			synchronized (mLock) {
+				long tail = mFileSize - snapshotSize;
+				if (tail > 0) {
+					copy(snapshotSize, tail, dos);
+				}
+				dos.flush();
+				out.getFD().sync();
+				closeQuietly(mOutput);
+				mOutput = null;
+				if (!tmp.renameTo(mFile)) {
+					openOutput();
+					throw new IOException("rename failed: " + tmp);
+				}
+				syncDirectory(mFile.getParentFile());
+				mFileSize = HEADER_SIZE + record.length + tail;
+				mCompactedSize = mFileSize;
+				openOutput();
+			}
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+			tmp.delete();
+		} finally {
+			closeQuietly(out);
+			synchronized (mLock) {
+				mCompacting = false;
+			}
+		}
+	}
+
+	private void copy(long offset, long length, DataOutputStream out) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+		try {
+			file.seek(offset);
+			byte[] buffer = new byte[8192];
+			while (length > 0) {
+				int count = file.read(buffer, 0, (int) Math.min(buffer.length, length));
+				if (count < 0) {
+					throw new IOException("Unexpected end of journal: " + mFile);
+				}
+				out.write(buffer, 0, count);
+				length -= count;
+			}
+		} finally {
+			closeQuietly(file);
+		}
+	}
+
+	/**
+	 * rename()之后同步所在的目录，否则断电后目录项可能还指向旧的文件或者丢失；Android 5.0以下没有接口，跳过；<br>
+	 * android.system.Os是Android 5.0的接口，通过反射调用；
+	 */
+	private static void syncDirectory(File dir) {
+		if (dir == null || Build.VERSION.SDK_INT < 21) {
+			return;
+		}
+		try {
+			Class<?> os = Class.forName("android.system.Os");
+			int flags = Class.forName("android.system.OsConstants").getField("O_RDONLY").getInt(null);
+			FileDescriptor fd = (FileDescriptor) os.getMethod("open", new Class[] { String.class, int.class, int.class }).invoke(null, dir.getPath(), flags, 0);
+			try {
+				os.getMethod("fsync", new Class[] { FileDescriptor.class }).invoke(null, fd);
+			} finally {
+				os.getMethod("close", new Class[] { FileDescriptor.class }).invoke(null, fd);
+			}
+		} catch (InvocationTargetException e) { // ErrnoException包装在InvocationTargetException中；
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (ClassNotFoundException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (NoSuchFieldException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (NoSuchMethodException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (IllegalAccessException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static byte[] encodeRecord(byte flags, byte[] payload) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + payload.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(payload.length);
+			out.writeInt(checksum(flags, payload));
+			out.writeByte(flags);
+			out.write(payload);
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // ByteArrayOutputStream不会抛出IOException
+		}
+		return bytes.toByteArray();
+	}
+
+	private static int checksum(byte flags, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(flags);
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				if (MultiprocessSharedPreferences.DEBUG) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射文件中保存的一份name的全部数据，ContentProvider写入，其他进程直接读取，不需要跨进程调用；不依赖Android API；<br>
+ * 使用seqlock方式保证一致性：写入前后各递增一次序号，序号为奇数表示正在写入；读取前后序号相同且为偶数、数据CRC32校验通过才算读到一致的数据，
+ * 否则重试，多次失败后由调用方改走跨进程读取；<br>
+ * 文件格式：64字节的文件头[MAGIC(int) + 版本(int) + 序号(long) + 状态(int) + 数据长度(int) + CRC32(int) + 保留(int) + 数据的版本号(long) + 确认数据的ContentProvider的generation(long)] + 数据（{@link PreferencesCodec}编码）；
+ * 数据超过文件大小时写入方扩大文件，读取方发现后重新映射；文件只扩大不缩小；
+ */
+final class MappedPreferencesStore {
+	static final int HEADER_SIZE = 64;
+	private static final int MAGIC = 0x4D50534D; // "MPSM"
+	private static final int FORMAT_VERSION = 1;
+	private static final int OFFSET_MAGIC = 0;
+	private static final int OFFSET_FORMAT_VERSION = 4;
+	private static final int OFFSET_SEQUENCE = 8;
+	private static final int OFFSET_STATE = 16;
+	private static final int OFFSET_LENGTH = 20;
+	private static final int OFFSET_CRC = 24;
+	private static final int OFFSET_VERSION = 32;
+	private static final int OFFSET_GENERATION = 40;
+	private static final int STATE_OPEN = 1;
+	private static final int STATE_CLOSED = 2; // 写入方不再更新，文件中的数据可能已过期；
+	private static final int MIN_CAPACITY = 16 * 1024;
+	private static final int MAX_RETRIES = 8;
+
+	private final boolean mWritable;
+	private RandomAccessFile mRandomAccessFile;
+	private FileChannel mChannel;
+	private MappedByteBuffer mBuffer;
+	private long mCachedSequence = -1;
+	private Map<String, Object> mCachedValues;
+
+	private MappedPreferencesStore(boolean writable) {
+		mWritable = writable;
+	}
+
+	/**
+	 * 写入方打开文件，文件不存在时创建；序号接着文件中原有的继续递增，避免读取方误用之前缓存的数据；
+	 */
+	static MappedPreferencesStore openForWrite(File file) throws IOException {
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		MappedPreferencesStore store = new MappedPreferencesStore(true);
+		try {
+			store.mRandomAccessFile = new RandomAccessFile(file, "rw");
+			store.mChannel = store.mRandomAccessFile.getChannel();
+			long size = store.mChannel.size();
+			if (size < MIN_CAPACITY) {
+				store.mRandomAccessFile.setLength(MIN_CAPACITY);
+				size = MIN_CAPACITY;
+			}
+			store.mBuffer = store.mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			long sequence = 0;
+			if (store.mBuffer.getInt(OFFSET_MAGIC) == MAGIC && store.mBuffer.getInt(OFFSET_FORMAT_VERSION) == FORMAT_VERSION) {
+				sequence = store.mBuffer.getLong(OFFSET_SEQUENCE);
+				sequence += (sequence & 1) == 0 ? 2 : 1; // 上次写入中途崩溃时序号为奇数；
+			} else {
+				store.mBuffer.putInt(OFFSET_LENGTH, 0);
+				store.mBuffer.putInt(OFFSET_STATE, STATE_CLOSED);
+			}
+			store.mBuffer.putLong(OFFSET_SEQUENCE, sequence);
+			store.mBuffer.putInt(OFFSET_FORMAT_VERSION, FORMAT_VERSION);
+			store.mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+			return store;
+		} catch (IOException e) {
+			store.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 读取方打开文件；
+	 *
+	 * @throws IOException 文件不存在或者格式不对；
+	 */
+	static MappedPreferencesStore openForRead(File file) throws IOException {
+		MappedPreferencesStore store = new MappedPreferencesStore(false);
+		try {
+			store.mRandomAccessFile = new RandomAccessFile(file, "r");
+			store.mChannel = store.mRandomAccessFile.getChannel();
+			store.mBuffer = store.mChannel.map(FileChannel.MapMode.READ_ONLY, 0, store.mChannel.size());
+			if (store.mBuffer.capacity() < HEADER_SIZE || store.mBuffer.getInt(OFFSET_MAGIC) != MAGIC || store.mBuffer.getInt(OFFSET_FORMAT_VERSION) != FORMAT_VERSION) {
+				throw new IOException("Invalid mapped store: " + file);
+			}
+			return store;
+		} catch (IOException e) {
+			store.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 写入一份完整的数据；只能由一个进程写入；
+	 *
+	 * @param version 数据对应的版本号，写入文件头；
+	 * @param generation 写入方ContentProvider的generation，读取方只使用与期望的generation相同的数据；
+	 */
+	synchronized void write(byte[] data, long version, long generation) throws IOException {
+		ensureCapacity(HEADER_SIZE + data.length);
+		long sequence = mBuffer.getLong(OFFSET_SEQUENCE);
+		mBuffer.putLong(OFFSET_SEQUENCE, sequence + 1);
+		ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(HEADER_SIZE);
+		buffer.put(data);
+		mBuffer.putInt(OFFSET_LENGTH, data.length);
+		mBuffer.putInt(OFFSET_CRC, checksum(data));
+		mBuffer.putLong(OFFSET_VERSION, version);
+		mBuffer.putLong(OFFSET_GENERATION, generation);
+		mBuffer.putInt(OFFSET_STATE, STATE_OPEN);
+		mBuffer.putLong(OFFSET_SEQUENCE, sequence + 2);
+	}
+
+	/**
+	 * 新的写入方确认文件中的数据仍是最新的，只修改文件头中的generation，不重写数据；
+	 */
+	synchronized void stamp(long generation) {
+		long sequence = mBuffer.getLong(OFFSET_SEQUENCE);
+		mBuffer.putLong(OFFSET_SEQUENCE, sequence + 1);
+		mBuffer.putLong(OFFSET_GENERATION, generation);
+		mBuffer.putLong(OFFSET_SEQUENCE, sequence + 2);
+	}
+
+	/**
+	 * 标记为不再更新，已映射这个文件的读取方之后都改走跨进程读取；
+	 */
+	synchronized void invalidate() {
+		long sequence = mBuffer.getLong(OFFSET_SEQUENCE);
+		mBuffer.putLong(OFFSET_SEQUENCE, sequence + 1);
+		mBuffer.putInt(OFFSET_STATE, STATE_CLOSED);
+		mBuffer.putLong(OFFSET_SEQUENCE, sequence + 2);
+	}
+
+	/**
+	 * @param generation 期望的写入方generation，文件头中的不同时说明数据没有被当前的写入方确认过；
+	 * @return 一致的数据，不能修改；写入方正在写入、多次重试仍读不到一致的数据、已标记为不再更新或者generation不同时返回null，由调用方改走跨进程读取；
+	 */
+	synchronized Map<String, Object> read(long generation) {
+		for (int i = 0; i < MAX_RETRIES; i++) {
+			long sequence = mBuffer.getLong(OFFSET_SEQUENCE);
+			if ((sequence & 1) != 0) { // 正在写入；
+				Thread.yield();
+				continue;
+			}
+			long g = mBuffer.getLong(OFFSET_GENERATION);
+			if (mBuffer.getLong(OFFSET_SEQUENCE) != sequence) {
+				continue;
+			}
+			if (g != generation) {
+				return null;
+			}
+			if (sequence == mCachedSequence) { // 上次读取之后没有写入过；
+				return mCachedValues;
+			}
+			if (mBuffer.getInt(OFFSET_STATE) != STATE_OPEN) {
+				return null;
+			}
+			int length = mBuffer.getInt(OFFSET_LENGTH);
+			int crc = mBuffer.getInt(OFFSET_CRC);
+			if (length < 0 || HEADER_SIZE + (long) length > mBuffer.capacity()) {
+				if (!remap()) { // 写入方扩大了文件；
+					return null;
+				}
+				continue;
+			}
+			byte[] data = new byte[length];
+			ByteBuffer buffer = mBuffer.duplicate();
+			buffer.position(HEADER_SIZE);
+			buffer.get(data);
+			if (mBuffer.getLong(OFFSET_SEQUENCE) != sequence || checksum(data) != crc) { // 读取过程中有写入；
+				continue;
+			}
+			try {
+				mCachedValues = Collections.unmodifiableMap(PreferencesCodec.decodeMap(data));
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+			mCachedSequence = sequence;
+			return mCachedValues;
+		}
+		return null;
+	}
+
+	/**
+	 * @return 文件头中的generation，可能正在修改，只用于判断是否需要重新打开；
+	 */
+	synchronized long getGeneration() {
+		return mBuffer.getLong(OFFSET_GENERATION);
+	}
+
+	synchronized boolean isInvalidated() {
+		return (mBuffer.getLong(OFFSET_SEQUENCE) & 1) == 0 && mBuffer.getInt(OFFSET_STATE) == STATE_CLOSED;
+	}
+
+	synchronized void close() {
+		if (mRandomAccessFile != null) {
+			try {
+				mRandomAccessFile.close(); // 映射在MappedByteBuffer被回收时释放；
+			} catch (IOException e) {
+				if (MultiprocessSharedPreferences.DEBUG) {
+					e.printStackTrace();
+				}
+			}
+			mRandomAccessFile = null;
+		}
+	}
+
+	private void ensureCapacity(int size) throws IOException {
+		if (size <= mBuffer.capacity()) {
+			return;
+		}
+		long capacity = mBuffer.capacity();
+		while (capacity < size) {
+			capacity *= 2;
+		}
+		mRandomAccessFile.setLength(capacity);
+		MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		mBuffer = buffer;
+	}
+
+	private boolean remap() {
+		try {
+			long size = mChannel.size();
+			if (size <= mBuffer.capacity()) {
+				return false;
+			}
+			mBuffer = mChannel.map(mWritable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+			return true;
+		} catch (IOException e) {
+			if (MultiprocessSharedPreferences.DEBUG) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+	}
+
+	private static int checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+}
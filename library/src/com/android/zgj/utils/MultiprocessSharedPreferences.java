@@ -5,8 +5,11 @@ package com.android.zgj.utils;
 
 import com.android.zgj.BuildConfig;
 
+import android.app.ActivityManager;
+import android.app.Application;
 import android.content.BroadcastReceiver;
 import android.content.ContentProvider;
+import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -20,29 +23,73 @@ import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.DeadObjectException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.util.Base64;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 使用ContentProvider实现多进程SharedPreferences读写;<br>
  * 1、ContentProvider天生支持多进程访问；<br>
- * 2、使用内部私有BroadcastReceiver实现多进程OnSharedPreferenceChangeListener监听；<br>
+ * 2、Android 3.0以上通过注册到ContentProvider的Messenger直接推送变更，实现多进程OnSharedPreferenceChangeListener监听，低版本使用内部私有BroadcastReceiver；<br>
+ * 3、（可选）通过{@link #setCacheEnabled(String, boolean)}开启进程内读缓存，缓存命中时不跨进程；<br>
+ * 4、getXxxAsync()和{@link EditorImpl#commitAsync(Executor, AsyncCallback)}在独立的线程池中跨进程调用，不阻塞调用线程；<br>
+ * 5、{@link #incrementInt(String, int)}、{@link #compareAndSet(String, Object, Object)}等原子操作在ContentProvider中执行，一次跨进程调用完成读取和写入；<br>
+ * 6、{@link #beginBatch(Context)}跨多个name的批量修改一次跨进程调用写入，通过重做日志保证崩溃后补写，部分name写入失败时返回false；<br>
  * 
  * 使用方法：AndroidManifest.xml中添加provider申明：<br>
  * <pre>
@@ -71,16 +118,56 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 	private Context mContext;
 	private String mName;
 	private int mMode;
-	private boolean mIsSafeMode;
+	private static volatile Boolean sIsSafeMode; // 进程内只检查一次；
+	private static final Object sProbeLock = new Object(); // 检查“安全模式”和AUTHORITY时有Binder调用，不占用其他锁；
+	private static final HashMap<String, MultiprocessSharedPreferences> sInstances = new HashMap<String, MultiprocessSharedPreferences>();
 	private static final Object CONTENT = new Object();
 	private WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners;
-	private BroadcastReceiver mReceiver;
+	private volatile KeyFilter mListenersFilter;
+	private final ChangeObserver mChangeObserver = new ChangeObserver() {
+		@Override
+		public void onChanged(Bundle data, Map<String, Object> values) {
+			dispatchChanged(data);
+		}
+
+		@Override
+		public void onReset() {
+		}
+
+		@Override
+		public KeyFilter getKeyFilter() {
+			return mListenersFilter;
+		}
+	};
 
 	private static String AUTHORITY;
 	private static volatile Uri AUTHORITY_URI;
 	private UriMatcher mUriMatcher;
+	private HashMap<String, Integer> mMethodMatcher;
 	private static final String KEY = "value";
 	private static final String KEY_NAME = "name";
+	private static final String KEY_MODE = "mode";
+	private static final String KEY_KEY = "key";
+	private static final String KEY_CLEAR = "clear";
+	private static final String KEY_TOKEN = "token";
+	private static final int GET_ALL_PAGE_SIZE = 256 * 1024; // 单次Binder传输上限1MB，且为进程内所有Binder调用共用；
+	private static final long GET_ALL_SNAPSHOT_TIMEOUT = 60 * 1000;
+	private static final String KEY_VERSION = "version";
+	private static final String KEY_GENERATION = "generation";
+	private static final String KEY_MESSENGER = "messenger";
+	private static final String KEY_TIME = "time";
+	private static final String KEY_VALUES = "values";
+	private static final String KEY_KEYS = "keys";
+	private static final String KEY_PREFIXES = "prefixes";
+	private static final String KEY_ERROR = "error";
+	private static final String KEY_BLOB = "blob";
+	private static final String KEY_BLOBS = "blobs";
+	private static final int BLOB_THRESHOLD = 32 * 1024; // 超过这个长度的字符串通过openFile()传递，不占用Binder缓冲区；
+	private static final String BLOB_DIR_NAME = "blobs"; // 之前的版本暂存大的字符串的目录，启动时删除；
+	private static final String CHARSET = "UTF-8";
+	private static final int NOTIFY_VALUES_MAX_SIZE = 64 * 1024; // 超过时只通知key，由客户端重新读取；
+	private static final int CHANGE_LOG_MAX_SIZE = 128; // 每个name在内存中保留的最近修改次数；
+	private static final String ACTION_PROVIDER_CREATED = MultiprocessSharedPreferences.class.getName() + ".PROVIDER_CREATED";
 	private static final String PATH_WILDCARD = "*/";
 	private static final String PATH_GET_ALL = "getAll";
 	private static final String PATH_GET_STRING = "getString";
@@ -94,6 +181,15 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 	private static final String PATH_REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER = "registerOnSharedPreferenceChangeListener";
 	private static final String PATH_UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER = "unregisterOnSharedPreferenceChangeListener";
 	private static final String PATH_GET_STRING_SET = "getStringSet";
+	private static final String PATH_GET_VALUES = "getValues";
+	private static final String PATH_GET_LISTENER_COUNTS = "getListenerCounts";
+	private static final String PATH_ATOMIC_OPERATION = "atomicOperation";
+	private static final String PATH_BATCH_COMMIT = "batchCommit";
+	private static final String PATH_PRELOAD = "preload";
+	private static final String PATH_GET_STORAGE_STATS = "getStorageStats";
+	private static final String PATH_BLOB = "blob";
+	private static final String PATH_GET_CHANGES_SINCE = "getChangesSince";
+	private static final String PATH_GET_STRING_INLINE = "getStringInline";
 	private static final int GET_ALL = 1;
 	private static final int GET_STRING = 2;
 	private static final int GET_INT = 3;
@@ -106,7 +202,61 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 	private static final int REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER = 10;
 	private static final int UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER = 11;
 	private static final int GET_STRING_SET = 12;
-	private HashMap<String, Integer> mListenersCount;
+	private static final int GET_VALUES = 13;
+	private static final int GET_LISTENER_COUNTS = 14;
+	private static final int ATOMIC_OPERATION = 15;
+	private static final int BATCH_COMMIT = 16;
+	private static final int PRELOAD = 17;
+	private static final int GET_STORAGE_STATS = 18;
+	private static final int BLOB = 19;
+	private static final int GET_CHANGES_SINCE = 20;
+	private static final int GET_STRING_INLINE = 21;
+	private static final long BROADCAST_LISTENERS_CHECK_INTERVAL = 60 * 1000;
+	private HashMap<String, HashMap<Integer, Integer>> mBroadcastListeners; // name -> 客户端进程pid -> 注册次数；
+	private long mBroadcastListenersCheckTime;
+	private HashMap<String, HashMap<IBinder, MessengerRecord>> mMessengers;
+	private HashMap<String, Long> mVersions;
+	private HashMap<String, ChangeLog> mChangeLogs;
+	private HashMap<String, GetAllSnapshot> mGetAllSnapshots;
+	private HashMap<String, BlobSnapshot> mBlobSnapshots;
+	private HashMap<String, BlobUpload> mBlobUploads;
+	private int mBlobSequence;
+	private int mGetAllSnapshotSequence;
+	private long mGeneration;
+	private static final HashMap<String, ValueCache> sValueCaches = new HashMap<String, ValueCache>();
+	private static final HashMap<String, PendingWrites> sPendingWrites = new HashMap<String, PendingWrites>();
+	private static Handler sBackgroundHandler;
+	private static Handler sApplyHandler;
+	private static boolean sLifecycleFlushRegistered;
+	private static final int PENDING_WRITES_MAX_KEYS = 256; // 写缓冲中的key超过这个数量时apply()在调用线程中同步写入，不再无限积累；
+	private static AsyncIpcExecutor sAsyncExecutor;
+	private static SharedProviderClient sProviderClient;
+	private static ChangeChannel sChangeChannel;
+	private static final HashMap<String, StorageEngine.Factory> sStorageEngineFactories = new HashMap<String, StorageEngine.Factory>();
+	private final HashMap<String, StorageEngine> mStorageEngines = new HashMap<String, StorageEngine>();
+	private final HashMap<String, GroupCommit> mGroupCommits = new HashMap<String, GroupCommit>();
+	private static volatile long sGroupCommitWindow;
+	private static volatile long sStorageMemoryBudget;
+	private final LinkedHashMap<String, StorageEngine> mLoadedEngines = new LinkedHashMap<String, StorageEngine>(16, 0.75f, true); // 按访问顺序，最久没有使用的在前；
+	private long mStorageHits;
+	private long mStorageMisses;
+	private long mStorageEvictions;
+	private boolean mStorageTrimScheduled;
+	private static final String MAPPED_STORE_DIR_NAME = "multiprocess_shared_prefs";
+	private static final long MAPPED_STORE_RETRY_INTERVAL = 1000;
+	private static final String MAPPED_STORE_SUFFIX = ".mmap";
+	private static final String MAPPED_STORE_GENERATION_FILE_NAME = "mapped.generation"; // 最后一次启动的ContentProvider确认过内存映射文件后写入它的generation；
+	private static final String BATCH_JOURNAL_DIR_NAME = "batch"; // 与name对应的文件分开存放，任何name都不会被当作重做日志；
+	private static final long BATCH_RETRY_INTERVAL = 1000;
+	private static final int BATCH_MAX_RETRIES = 5; // 间隔依次加倍，仍失败时留到下次启动时重做；
+	private static final HashMap<String, MappedStoreHolder> sMappedStores = new HashMap<String, MappedStoreHolder>();
+	private static volatile boolean sProviderConnected; // 本进程是否已经成功访问过ContentProvider（任何读取、写入或注册）；
+	private static boolean sProviderConnecting;
+	private final HashMap<String, MappedPreferencesStore> mMappedStores = new HashMap<String, MappedPreferencesStore>();
+	private final AtomicLong mBatchSequence = new AtomicLong();
+	private volatile CountDownLatch mStartupLatch; // 重做批量修改的日志完成前，其他请求等待；
+	private static volatile boolean sNotifyValuesEnabled;
+	private static volatile boolean sMessengerChannelEnabled = true;
 
 	private static class ReflectionUtil {
 
@@ -130,7 +280,7 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 
 		public static Editor editorPutStringSet(Editor editor, String key, Set<String> values) {
 			try {
-				Method method = editor.getClass().getDeclaredMethod("putStringSet", new Class[] { String.class, Set.class }); // Android 3.0
+				Method method = Editor.class.getMethod("putStringSet", new Class[] { String.class, Set.class }); // Android 3.0，按接口查找，实现类不是public时（例如JVM上的Robolectric）也能调用；
 				return (Editor) method.invoke(editor, key, values);
 			} catch (IllegalArgumentException e) {
 				throw new RuntimeException(e);
@@ -146,7 +296,7 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 		@SuppressWarnings("unchecked")
 		public static Set<String> sharedPreferencesGetStringSet(SharedPreferences sharedPreferences, String key, Set<String> values) {
 			try {
-				Method method = sharedPreferences.getClass().getDeclaredMethod("getStringSet", new Class[] { String.class, Set.class }); // Android 3.0
+				Method method = SharedPreferences.class.getMethod("getStringSet", new Class[] { String.class, Set.class }); // Android 3.0
 				return (Set<String>) method.invoke(sharedPreferences, key, values);
 			} catch (IllegalArgumentException e) {
 				throw new RuntimeException(e);
@@ -161,7 +311,7 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 
 		public static void editorApply(Editor editor) {
 			try {
-				Method method = editor.getClass().getDeclaredMethod("apply"); // Android 2.3
+				Method method = Editor.class.getMethod("apply"); // Android 2.3
 				method.invoke(editor);
 			} catch (IllegalArgumentException e) {
 				throw new RuntimeException(e);
@@ -174,6 +324,112 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 			}
 		}
 
+		/**
+		 * 通过动态代理实现Application.ActivityLifecycleCallbacks，每个Activity.onStop()之后执行callback；
+		 */
+		public static void applicationRegisterActivityStoppedCallback(Application application, final Runnable callback) {
+			try {
+				Class<?> callbacksClass = Class.forName("android.app.Application$ActivityLifecycleCallbacks"); // Android 4.0
+				Object proxy = Proxy.newProxyInstance(callbacksClass.getClassLoader(), new Class[] { callbacksClass }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if ("onActivityStopped".equals(name)) {
+							callback.run();
+						} else if ("equals".equals(name)) {
+							return proxy == args[0];
+						} else if ("hashCode".equals(name)) {
+							return System.identityHashCode(proxy);
+						} else if ("toString".equals(name)) {
+							return callback.toString();
+						}
+						return null;
+					}
+				});
+				Method method = Application.class.getMethod("registerActivityLifecycleCallbacks", new Class[] { callbacksClass });
+				method.invoke(application, proxy);
+			} catch (ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static Method sContentResolverCall; // 每次读写都会调用，缓存Method避免重复查找；
+
+		public static Bundle contentResolverCall(ContentResolver contentResolver, Uri uri, String method, String arg, Bundle extras) {
+			try {
+				if (sContentResolverCall == null) {
+					sContentResolverCall = ContentResolver.class.getDeclaredMethod("call", new Class[] { Uri.class, String.class, String.class, Bundle.class }); // Android 3.0
+				}
+				return (Bundle) sContentResolverCall.invoke(contentResolver, uri, method, arg, extras);
+			} catch (InvocationTargetException e) {
+				// 跨进程调用抛出的异常原样抛出，由调用方按query()/update()的方式处理；
+				if (e.getTargetException() instanceof RuntimeException) {
+					throw (RuntimeException) e.getTargetException();
+				}
+				throw new RuntimeException(e);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static Method sAcquireUnstableContentProviderClient;
+
+		public static ContentProviderClient contentResolverAcquireUnstableContentProviderClient(ContentResolver contentResolver, Uri uri) {
+			try {
+				if (sAcquireUnstableContentProviderClient == null) {
+					sAcquireUnstableContentProviderClient = ContentResolver.class.getDeclaredMethod("acquireUnstableContentProviderClient", new Class[] { Uri.class }); // Android 4.1
+				}
+				return (ContentProviderClient) sAcquireUnstableContentProviderClient.invoke(contentResolver, uri);
+			} catch (InvocationTargetException e) {
+				if (e.getTargetException() instanceof RuntimeException) {
+					throw (RuntimeException) e.getTargetException();
+				}
+				throw new RuntimeException(e);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static Method sContentProviderClientCall;
+
+		public static Bundle contentProviderClientCall(ContentProviderClient client, String method, String arg, Bundle extras) throws RemoteException {
+			try {
+				if (sContentProviderClientCall == null) {
+					sContentProviderClientCall = ContentProviderClient.class.getDeclaredMethod("call", new Class[] { String.class, String.class, Bundle.class }); // Android 4.2
+				}
+				return (Bundle) sContentProviderClientCall.invoke(client, method, arg, extras);
+			} catch (InvocationTargetException e) {
+				if (e.getTargetException() instanceof RemoteException) {
+					throw (RemoteException) e.getTargetException();
+				} else if (e.getTargetException() instanceof RuntimeException) {
+					throw (RuntimeException) e.getTargetException();
+				}
+				throw new RuntimeException(e);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
 		public static String contentProvidermAuthority(ContentProvider contentProvider) {
 			try {
 				Field mAuthority = ContentProvider.class.getDeclaredField("mAuthority"); // Android 5.0
@@ -187,7 +443,33 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 		}
 	}
 
-	// 如果设备处在“安全模式”下，只有系统自带的ContentProvider才能被正常解析使用；
+	/**
+	 * 如果设备处在“安全模式”下，只有系统自带的ContentProvider才能被正常解析使用；<br>
+	 * 第一次调用时检查设备是否处在“安全模式”，之后使用进程内的结果；读取前先检查{@link #isProbePending()}，不在主线程上等待；
+	 */
+	private boolean isSafeMode() {
+		Boolean isSafeMode = sIsSafeMode;
+		if (isSafeMode == null) {
+			synchronized (sProbeLock) {
+				if (sIsSafeMode == null) {
+					sIsSafeMode = isSafeMode(mContext);
+				}
+				isSafeMode = sIsSafeMode;
+			}
+		}
+		return isSafeMode;
+	}
+
+	/**
+	 * 读取时使用：主线程不等待后台线程正在进行的“安全模式”和AUTHORITY检查（其中有PackageManager的Binder调用），
+	 * 还不知道结果时只读内存映射文件、冷启动快照和已填充的缓存，都没有时返回默认值；写入仍然等待检查；
+	 *
+	 * @return 在主线程上并且检查还没有完成；
+	 */
+	private static boolean isProbePending() {
+		return (sIsSafeMode == null || (AUTHORITY_URI == null && AUTHORITY == null)) && Looper.myLooper() == Looper.getMainLooper();
+	}
+
 	private boolean isSafeMode(Context context) {
 		boolean isSafeMode = false;
 		try {
@@ -211,9 +493,303 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 		AUTHORITY = authority;
 	}
 
+	/**
+	 * （可选）设置name对应的存储引擎，默认使用系统的SharedPreferences；<br>
+	 * 需要在ContentProvider所在进程中、第一次读写name之前调用，ContentProvider可能在Application.onCreate()之前就开始处理请求，建议在Application.attachBaseContext()中调用；
+	 * 
+	 * @param name 为null时作为所有没有单独设置的name的默认值；
+	 * @param factory 为null时恢复默认；
+	 */
+	public static void setStorageEngineFactory(String name, StorageEngine.Factory factory) {
+		synchronized (sStorageEngineFactories) {
+			if (factory == null) {
+				sStorageEngineFactories.remove(name);
+			} else {
+				sStorageEngineFactories.put(name, factory);
+			}
+		}
+	}
+
+	/**
+	 * （可选）设置ContentProvider合并写入的等待时间，在ContentProvider所在进程中调用；<br>
+	 * 同一个name的写入总是排队执行，前一次写入过程中到达的写入会合并为一次写入；设置大于0时，每组写入开始前再等待这段时间收集更多的写入，
+	 * 以单次commit()的延迟换取并发commit()时更少的磁盘写入；默认为0；
+	 * 
+	 * @param millis
+	 */
+	public static void setGroupCommitWindow(long millis) {
+		sGroupCommitWindow = millis;
+	}
+
+	/**
+	 * （可选）设置ContentProvider中存储引擎的内存预算，在ContentProvider所在进程中、第一次读写之前调用；<br>
+	 * 超出时在后台线程卸载最久没有使用、所有修改都已写入文件的存储引擎，下次访问时重新加载；内存按加载的每个key和值的大小估算；<br>
+	 * 只有实现了{@link StorageEngine.Unloadable}的存储引擎可以卸载，系统SharedPreferences由系统一直缓存，不计入也不卸载；
+	 * 因此设置了预算时，没有通过{@link #setStorageEngineFactory(String, StorageEngine.Factory)}指定存储引擎的name改用{@link JournalStorageEngine}（第一次使用时导入原有数据）；
+	 * 
+	 * @param bytes 小于等于0时不限制，默认不限制；
+	 */
+	public static void setStorageMemoryBudget(long bytes) {
+		sStorageMemoryBudget = bytes;
+	}
+
+	/**
+	 * （可选）开启或关闭name对应的内存映射读取，需要在所有进程中调用（例如Application.attachBaseContext()）；<br>
+	 * 开启后ContentProvider每次写入后把name的全部数据写入一个内存映射文件，其他进程直接从映射的内存中读取，不需要跨进程调用，写入仍通过ContentProvider；
+	 * 读取到正在写入或不一致的数据时重试，仍失败时改走跨进程读取；<br>
+	 * 每次写入都要重新编码全部数据，只适合数据量不大、读多写少的name；
+	 * 
+	 * @param name
+	 * @param enabled
+	 */
+	public static void setMappedStoreEnabled(String name, boolean enabled) {
+		setMappedStoreMode(name, enabled, null);
+	}
+
+	/**
+	 * （可选）开启或关闭name对应的冷启动快照，需要在所有进程中调用（例如Application.attachBaseContext()）；<br>
+	 * 开启后ContentProvider每次写入后把name的全部数据写入快照文件（与{@link #setMappedStoreEnabled(String, boolean)}使用同一个文件）；
+	 * 进程启动后还没有访问过ContentProvider时，读取直接使用快照，同时在后台线程连接ContentProvider（必要时启动ContentProvider所在进程），
+	 * 连接成功后本进程不再使用快照，改为跨进程读取；<br>
+	 * ContentProvider没有运行时没有其他写入方，快照就是最新的数据；ContentProvider运行时每次写入完成前都会更新快照；<br>
+	 * ContentProvider每次启动时确认已有的文件并记录自己的generation，读取方只使用最后一次启动的ContentProvider确认过的文件，
+	 * 因此ContentProvider所在进程也需要开启，否则文件会被删除，读取都改走跨进程；
+	 * 
+	 * @param name
+	 * @param enabled
+	 */
+	public static void setColdStartSnapshotEnabled(String name, boolean enabled) {
+		setMappedStoreMode(name, null, enabled);
+	}
+
+	private static void setMappedStoreMode(String name, Boolean mapped, Boolean coldStart) {
+		MappedStoreHolder holder;
+		synchronized (sMappedStores) {
+			holder = sMappedStores.get(name);
+			if (holder == null) {
+				holder = new MappedStoreHolder();
+				sMappedStores.put(name, holder);
+			}
+			if (mapped != null) {
+				holder.mapped = mapped;
+			}
+			if (coldStart != null) {
+				holder.coldStart = coldStart;
+			}
+			if (holder.mapped || holder.coldStart) {
+				return;
+			}
+			sMappedStores.remove(name);
+		}
+		if (holder.store != null) {
+			holder.store.close();
+		}
+	}
+
+	private static boolean isMappedStoreEnabled(String name) {
+		synchronized (sMappedStores) {
+			return sMappedStores.containsKey(name);
+		}
+	}
+
+	private static File getMappedStoreFile(Context context, String name) {
+		return new File(context.getDir(MAPPED_STORE_DIR_NAME, Context.MODE_PRIVATE), name + MAPPED_STORE_SUFFIX);
+	}
+
+	/**
+	 * @return 最后一次启动的ContentProvider确认过内存映射文件之后写入的generation，没有时返回0；
+	 */
+	private static long readMappedStoreGeneration(Context context) {
+		File file = new File(context.getDir(MAPPED_STORE_DIR_NAME, Context.MODE_PRIVATE), MAPPED_STORE_GENERATION_FILE_NAME);
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readLong();
+		} catch (IOException e) { // ContentProvider还没有启动过；
+			return 0;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * （可选）开启或关闭name对应的进程内读缓存；<br>
+	 * 开启后第一次读取时通过一次getAll填充缓存，之后的读取直接命中缓存不再跨进程；<br>
+	 * 缓存依靠ContentProvider发出的带版本号的变更广播保持一致，适用于读多写少的配置项；
+	 * 
+	 * @param name
+	 * @param enabled
+	 */
+	public static void setCacheEnabled(String name, boolean enabled) {
+		ValueCache cache = null;
+		synchronized (sValueCaches) {
+			if (enabled) {
+				if (!sValueCaches.containsKey(name)) {
+					sValueCaches.put(name, new ValueCache(name));
+				}
+			} else {
+				cache = sValueCaches.remove(name);
+			}
+		}
+		if (cache != null) {
+			cache.release();
+		}
+	}
+
+	/**
+	 * （可选）开启后本进程注册的变更监听会要求ContentProvider在通知中附带修改后的值（删除的key为null），
+	 * 监听回调中读取修改的key、以及开启的进程内读缓存都直接使用通知中的值，不再跨进程读取；<br>
+	 * 需要在注册监听之前调用，只对Android 3.0以上有效；修改的值较大时仍只通知key；
+	 * 
+	 * @param enabled
+	 */
+	public static void setNotifyValuesEnabled(boolean enabled) {
+		sNotifyValuesEnabled = enabled;
+	}
+
+	/**
+	 * （可选）关闭后Android 3.0以上也使用广播接收变更通知，默认开启（Messenger）；<br>
+	 * 用于对比两种通知方式的延迟（com.android.zgj.NotifyLatencyBenchmark）或者排查兼容问题；需要在本进程第一次注册监听或开启读缓存之前调用；
+	 * 
+	 * @param enabled
+	 */
+	public static void setMessengerChannelEnabled(boolean enabled) {
+		sMessengerChannelEnabled = enabled;
+	}
+
+	private static ValueCache getValueCache(String name) {
+		synchronized (sValueCaches) {
+			return sValueCaches.get(name);
+		}
+	}
+
+	private static PendingWrites getPendingWrites(MultiprocessSharedPreferences sp) {
+		synchronized (sPendingWrites) {
+			PendingWrites pendingWrites = sPendingWrites.get(sp.mName);
+			if (pendingWrites == null) {
+				pendingWrites = new PendingWrites(sp);
+				sPendingWrites.put(sp.mName, pendingWrites);
+				registerLifecycleFlush(sp.mContext);
+			}
+			return pendingWrites;
+		}
+	}
+
+	/**
+	 * 等待本进程所有apply()的修改写入ContentProvider，与系统SharedPreferences的QueuedWork.waitToFinish()相同；<br>
+	 * Android 4.0以上Activity.onStop()之后自动调用，之后进程可能随时被回收；Service等其他组件可以在onDestroy()中调用；
+	 */
+	public static void flushPendingWrites() {
+		ArrayList<PendingWrites> all;
+		synchronized (sPendingWrites) {
+			all = new ArrayList<PendingWrites>(sPendingWrites.values());
+		}
+		for (PendingWrites pendingWrites : all) {
+			pendingWrites.flush(); // 后台线程正在写入时等它写完；
+		}
+	}
+
+	private static void registerLifecycleFlush(Context context) {
+		if (sLifecycleFlushRegistered || Build.VERSION.SDK_INT < 14) { // Android 4.0
+			return;
+		}
+		Context applicationContext = context.getApplicationContext();
+		if (!(applicationContext instanceof Application)) {
+			return;
+		}
+		sLifecycleFlushRegistered = true;
+		try {
+			ReflectionUtil.applicationRegisterActivityStoppedCallback((Application) applicationContext, new Runnable() {
+				@Override
+				public void run() {
+					flushPendingWrites();
+				}
+			});
+		} catch (RuntimeException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return name对应的写缓冲，没有待写入的修改时返回null；
+	 */
+	private static PendingWrites peekPendingWrites(String name) {
+		PendingWrites pendingWrites;
+		synchronized (sPendingWrites) {
+			pendingWrites = sPendingWrites.get(name);
+		}
+		return pendingWrites == null || pendingWrites.isEmpty() ? null : pendingWrites;
+	}
+
+	private static SharedProviderClient getProviderClient(Context context) {
+		synchronized (MultiprocessSharedPreferences.class) {
+			if (sProviderClient == null) {
+				Context applicationContext = context.getApplicationContext();
+				sProviderClient = new SharedProviderClient((applicationContext == null ? context : applicationContext).getContentResolver());
+			}
+			return sProviderClient;
+		}
+	}
+
+	/**
+	 * 进程内共用的后台线程，用于检查、注册、预加载、压缩等不需要等待结果的工作；apply()的修改使用单独的{@link #getApplyHandler()}；
+	 */
+	static Handler getBackgroundHandler() {
+		synchronized (MultiprocessSharedPreferences.class) {
+			if (sBackgroundHandler == null) {
+				HandlerThread thread = new HandlerThread(TAG);
+				thread.start();
+				sBackgroundHandler = new Handler(thread.getLooper());
+			}
+			return sBackgroundHandler;
+		}
+	}
+
+	/**
+	 * 只用于写入apply()的修改，不会被共用后台线程中阻塞的跨进程调用拖住；
+	 */
+	private static Handler getApplyHandler() {
+		synchronized (MultiprocessSharedPreferences.class) {
+			if (sApplyHandler == null) {
+				HandlerThread thread = new HandlerThread(TAG + "-apply");
+				thread.start();
+				sApplyHandler = new Handler(thread.getLooper());
+			}
+			return sApplyHandler;
+		}
+	}
+
+	private static AsyncIpcExecutor getAsyncExecutor() {
+		synchronized (MultiprocessSharedPreferences.class) {
+			if (sAsyncExecutor == null) {
+				sAsyncExecutor = new AsyncIpcExecutor(TAG);
+			}
+			return sAsyncExecutor;
+		}
+	}
+
+	/**
+	 * @return 异步接口线程池的队列深度等统计，用于监控；
+	 */
+	public static AsyncMetrics getAsyncMetrics() {
+		return getAsyncExecutor().getMetrics();
+	}
+
+	private static ChangeChannel getChangeChannel(Context context) {
+		synchronized (MultiprocessSharedPreferences.class) {
+			if (sChangeChannel == null) {
+				Context applicationContext = context.getApplicationContext();
+				sChangeChannel = new ChangeChannel(applicationContext == null ? context : applicationContext);
+			}
+			return sChangeChannel;
+		}
+	}
+
 	private boolean checkInitAuthority(Context context) {
 		if (AUTHORITY_URI == null) {
-			synchronized (MultiprocessSharedPreferences.this) {
+			synchronized (sProbeLock) {
 				if (AUTHORITY_URI == null) {
 					if(AUTHORITY == null) {
 						if (Build.VERSION.SDK_INT >= 21 && this instanceof ContentProvider) {
@@ -342,7 +918,105 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 	 * @see Context#MODE_WORLD_WRITEABLE
 	 */
 	public static SharedPreferences getSharedPreferences(Context context, String name, int mode) {
-		return new MultiprocessSharedPreferences(context, name, mode);
+		return getInstance(context, name, mode);
+	}
+
+	/**
+	 * 在后台线程预加载，适合在Application.onCreate()中对首屏需要的name调用，不阻塞调用线程：<br>
+	 * 1、连接ContentProvider（必要时启动ContentProvider所在进程），让ContentProvider提前把这些name加载到内存；<br>
+	 * 2、开启了读缓存（{@link #setCacheEnabled(String, boolean)}）的name一次跨进程调用取回全部数据填充缓存，总量较大时超出的部分留到第一次读取时再取；<br>
+	 * 预加载完成前的读取照常跨进程读取，不等待预加载；
+	 * 
+	 * @param context
+	 * @param mode
+	 * @param names
+	 */
+	public static void preload(Context context, final int mode, final String... names) {
+		final Context applicationContext = context.getApplicationContext() == null ? context : context.getApplicationContext();
+		getBackgroundHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				preloadNow(applicationContext, mode, names);
+			}
+		});
+	}
+
+	private static void preloadNow(Context context, int mode, String[] names) {
+		if (names.length == 0) {
+			return;
+		}
+		ArrayList<String> valueNames = new ArrayList<String>();
+		ArrayList<String> loadNames = new ArrayList<String>();
+		HashMap<String, Integer> invalidateCounts = new HashMap<String, Integer>();
+		MultiprocessSharedPreferences first = null;
+		for (String name : names) {
+			MultiprocessSharedPreferences sp = getInstance(context, name, mode);
+			if (first == null) {
+				first = sp;
+			}
+			ValueCache cache = getValueCache(name);
+			int invalidateCount = cache == null || cache.isFilled() ? -1 : cache.prepareFill(sp);
+			if (invalidateCount >= 0) {
+				valueNames.add(name);
+				invalidateCounts.put(name, invalidateCount);
+			} else {
+				loadNames.add(name);
+			}
+		}
+		// 需要数据的name在前，key为它们的数量；
+		String[] allNames = new String[valueNames.size() + loadNames.size()];
+		valueNames.toArray(allNames);
+		for (int i = 0; i < loadNames.size(); i++) {
+			allNames[valueNames.size() + i] = loadNames.get(i);
+		}
+		Bundle bundle = first.getBundle(PATH_PRELOAD, String.valueOf(valueNames.size()), allNames);
+		Bundle values = bundle == null ? null : bundle.getBundle(KEY);
+		Bundle versions = bundle == null ? null : bundle.getBundle(KEY_VERSION);
+		int filled = 0;
+		if (values != null && versions != null) {
+			long generation = bundle.getLong(KEY_GENERATION);
+			for (String name : valueNames) {
+				byte[] data = values.getByteArray(name);
+				ValueCache cache = getValueCache(name);
+				if (data != null && cache != null) {
+					cache.fill(PreferencesCodec.decodeMap(data), generation, versions.getLong(name), invalidateCounts.get(name));
+					filled++;
+				}
+			}
+		}
+		if (DEBUG) {
+			Log.d(TAG, "preload.names = " + Arrays.toString(names) + ", filled = " + filled + ", success = " + (bundle != null));
+		}
+	}
+
+	/**
+	 * 与Context.getSharedPreferences()相同，同一个name在进程内只创建一个实例，mode以第一次调用为准；<br>
+	 * 第一次调用时在后台线程检查“安全模式”和AUTHORITY，之后的调用只查一次HashMap；
+	 */
+	private static MultiprocessSharedPreferences getInstance(Context context, String name, int mode) {
+		MultiprocessSharedPreferences sp;
+		boolean created = false;
+		synchronized (sInstances) {
+			sp = sInstances.get(name);
+			if (sp == null) {
+				Context applicationContext = context.getApplicationContext(); // 实例一直保留，不能持有调用方的Activity；
+				sp = new MultiprocessSharedPreferences(applicationContext == null ? context : applicationContext, name, mode);
+				created = sInstances.isEmpty();
+				sInstances.put(name, sp);
+			}
+		}
+		if (created) {
+			final MultiprocessSharedPreferences probe = sp;
+			getBackgroundHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					if (!probe.isSafeMode()) {
+						probe.checkInitAuthority(probe.mContext);
+					}
+				}
+			});
+		}
+		return sp;
 	}
 
 	/**
@@ -357,7 +1031,6 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 		mContext = context;
 		mName = name;
 		mMode = mode;
-		mIsSafeMode = isSafeMode(mContext);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -403,54 +1076,338 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 		return (Boolean) getValue(PATH_CONTAINS, key, false);
 	}
 
-	@Override
-	public Editor edit() {
-		return new EditorImpl();
-	}
-
-	@Override
-	public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
-		synchronized (this) {
-			if (mListeners == null) {
-				mListeners = new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+	/**
+	 * 一次跨进程读取多个key，适合启动时集中读取同一个name下的多个配置；
+	 * 
+	 * @param defValues key为要读取的key，value为对应的默认值，读取到的值与默认值类型不一致时抛出ClassCastException；
+	 * @return 每个key对应的值，不存在时为默认值；
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> getValues(Map<String, ?> defValues) {
+		Map<String, Object> values = null;
+		boolean probePending = isProbePending();
+		if (probePending || !isSafeMode()) {
+			ValueCache cache = getValueCache(mName);
+			if (cache != null) {
+				values = probePending ? cache.peekValues() : cache.getValues(this);
 			}
-			Boolean result = (Boolean) getValue(PATH_REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, null, false);
-			if (result != null && result) {
-				mListeners.put(listener, CONTENT);
-				if (mReceiver == null) {
-					mReceiver = new BroadcastReceiver() {
-						@Override
-						public void onReceive(Context context, Intent intent) {
-							String name = intent.getStringExtra(KEY_NAME);
-							@SuppressWarnings("unchecked")
-							List<String> keysModified = (List<String>) intent.getSerializableExtra(KEY);
-							if (mName.equals(name) && keysModified != null) {
-								Set<OnSharedPreferenceChangeListener> listeners = new HashSet<OnSharedPreferenceChangeListener>(mListeners.keySet());
-								for (int i = keysModified.size() - 1; i >= 0; i--) {
-									final String key = keysModified.get(i);
-									for (OnSharedPreferenceChangeListener listener : listeners) {
-										if (listener != null) {
-											listener.onSharedPreferenceChanged(MultiprocessSharedPreferences.this, key);
-										}
-									}
-								}
-							}
-						}
-					};
-					mContext.registerReceiver(mReceiver, new IntentFilter(makeAction(mName)));
-				}
+		}
+		if (values == null && !probePending) {
+			String[] keys = new String[defValues.size()];
+			defValues.keySet().toArray(keys);
+			Bundle bundle = getBundle(PATH_GET_VALUES, null, keys);
+			if (bundle != null) {
+				values = PreferencesCodec.decodeMap(bundle.getByteArray(KEY));
+				bundle.clear();
 			}
 		}
-	}
-
-	@Override
-	public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
-		synchronized (this) {
-			getValue(PATH_UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, null, false); // WeakHashMap
-			if (mListeners != null) {
-				mListeners.remove(listener);
-				if (mListeners.isEmpty() && mReceiver != null) {
-					mContext.unregisterReceiver(mReceiver);
+		PendingWrites pendingWrites = peekPendingWrites(mName);
+		Map<String, Object> result = new HashMap<String, Object>();
+		for (Map.Entry<String, ?> entry : defValues.entrySet()) {
+			Object defValue = entry.getValue();
+			Object v = pendingWrites == null ? PendingWrites.NOT_PENDING : pendingWrites.get(entry.getKey());
+			if (v == PendingWrites.NOT_PENDING) {
+				v = values == null ? null : values.get(entry.getKey());
+			}
+			if (v == null) {
+				v = defValue;
+			} else if (v instanceof Set) {
+				v = new HashSet<String>((Set<String>) v);
+			}
+			if (v != null && defValue != null && v != defValue && !(v instanceof Set && defValue instanceof Set) && !defValue.getClass().isInstance(v)) {
+				throw new ClassCastException(v.getClass().getName() + " cannot be cast to " + defValue.getClass().getName() + ", key = " + entry.getKey());
+			}
+			result.put(entry.getKey(), v);
+		}
+		if (DEBUG) {
+			Log.d(TAG, "getValues.mName = " + mName + ", defValues.size() = " + defValues.size());
+		}
+		return result;
+	}
+
+	/**
+	 * 异步读取，不阻塞调用线程；同一时间相同的读取共用一次跨进程调用；
+	 * 
+	 * @param key
+	 * @param defValue
+	 * @param executor 执行callback的Executor，为null时在跨进程调用的线程中执行；
+	 * @param callback 可以为null，只使用返回的Future；
+	 * @return 读取结果，不支持取消；线程池队列已满时以RejectedExecutionException结束；
+	 */
+	public Future<String> getStringAsync(String key, String defValue, Executor executor, AsyncCallback<String> callback) {
+		return getValueAsync(PATH_GET_STRING, key, defValue, executor, callback);
+	}
+
+	public Future<Set<String>> getStringSetAsync(String key, Set<String> defValues, Executor executor, AsyncCallback<Set<String>> callback) {
+		return getValueAsync(PATH_GET_STRING_SET, key, defValues, executor, callback);
+	}
+
+	public Future<Integer> getIntAsync(String key, int defValue, Executor executor, AsyncCallback<Integer> callback) {
+		return getValueAsync(PATH_GET_INT, key, defValue, executor, callback);
+	}
+
+	public Future<Long> getLongAsync(String key, long defValue, Executor executor, AsyncCallback<Long> callback) {
+		return getValueAsync(PATH_GET_LONG, key, defValue, executor, callback);
+	}
+
+	public Future<Float> getFloatAsync(String key, float defValue, Executor executor, AsyncCallback<Float> callback) {
+		return getValueAsync(PATH_GET_FLOAT, key, defValue, executor, callback);
+	}
+
+	public Future<Boolean> getBooleanAsync(String key, boolean defValue, Executor executor, AsyncCallback<Boolean> callback) {
+		return getValueAsync(PATH_GET_BOOLEAN, key, defValue, executor, callback);
+	}
+
+	public Future<Boolean> containsAsync(String key, Executor executor, AsyncCallback<Boolean> callback) {
+		return getValueAsync(PATH_CONTAINS, key, false, executor, callback);
+	}
+
+	public Future<Map<String, ?>> getAllAsync(Executor executor, AsyncCallback<Map<String, ?>> callback) {
+		return getValueAsync(PATH_GET_ALL, null, null, executor, callback);
+	}
+
+	private <T> Future<T> getValueAsync(final String pathSegment, final String key, final Object defValue, Executor executor, AsyncCallback<T> callback) {
+		Callable<T> callable = new Callable<T>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public T call() {
+				Object v = getValue(pathSegment, key, defValue);
+				if (v == null && PATH_GET_ALL.equals(pathSegment)) {
+					v = new HashMap<String, Object>();
+				}
+				return (T) v;
+			}
+		};
+		List<Object> dedupeKey = Arrays.asList(mName, pathSegment, key, defValue);
+		// 共用一次跨进程调用的调用方各自得到一份getAll()和getStringSet()结果的副本，互不影响；
+		final AsyncCallback<T> target = callback;
+		AsyncCallback<T> copying = callback == null ? null : new AsyncCallback<T>() {
+			@Override
+			public void onResult(T result) {
+				target.onResult(copyResult(result));
+			}
+
+			@Override
+			public void onError(Throwable e) {
+				target.onError(e);
+			}
+		};
+		return new CopyingFuture<T>(getAsyncExecutor().submit(mName, dedupeKey, callable, executor, copying));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T copyResult(T result) {
+		if (result instanceof Map) {
+			return (T) new HashMap<String, Object>((Map<String, Object>) result);
+		} else if (result instanceof Set) {
+			return (T) new HashSet<String>((Set<String>) result);
+		}
+		return result;
+	}
+
+	/**
+	 * 每次get()返回结果的副本；
+	 */
+	private static final class CopyingFuture<T> implements Future<T> {
+		private final Future<T> mFuture;
+
+		CopyingFuture(Future<T> future) {
+			mFuture = future;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return mFuture.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return mFuture.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return mFuture.isDone();
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			return copyResult(mFuture.get());
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return copyResult(mFuture.get(timeout, unit));
+		}
+	}
+
+	/**
+	 * 在ContentProvider中原子地把key对应的int加上delta并写入，与其他进程的写入和原子操作互不干扰；<br>
+	 * 与commit()一样写入磁盘后返回，并照常通知监听；
+	 * 
+	 * @param key 不存在时按0计算；
+	 * @param delta
+	 * @return 加上delta后的值；写入失败（例如ContentProvider不可用）时返回null；原值不是int时抛出ClassCastException；
+	 */
+	public Integer incrementInt(String key, int delta) {
+		return (Integer) executeOperation(AtomicOperation.INCREMENT, key, null, delta);
+	}
+
+	/**
+	 * 与{@link #incrementInt(String, int)}相同，用于long；
+	 */
+	public Long incrementLong(String key, long delta) {
+		return (Long) executeOperation(AtomicOperation.INCREMENT, key, null, delta);
+	}
+
+	/**
+	 * 在ContentProvider中原子地比较并写入：key当前的值与expect相等（equals()）时写入update；
+	 * 
+	 * @param key
+	 * @param expect 为null表示期望key不存在；
+	 * @param update 为null表示删除key；类型与put时相同；
+	 * @return 是否比较相等并写入成功；
+	 */
+	public boolean compareAndSet(String key, Object expect, Object update) {
+		Object result = executeOperation(AtomicOperation.COMPARE_AND_SET, key, expect, update);
+		return result != null && (Boolean) result;
+	}
+
+	/**
+	 * 在ContentProvider中原子地写入：key不存在时写入value，适合多进程间只执行一次的标记；
+	 * 
+	 * @param key
+	 * @param value 不能为null；类型与put时相同；
+	 * @return 操作后key的值：key已存在时为原值，否则为value；写入失败时返回null；
+	 */
+	public Object putIfAbsent(String key, Object value) {
+		if (value == null) {
+			throw new NullPointerException("value == null");
+		}
+		return executeOperation(AtomicOperation.PUT_IF_ABSENT, key, null, value);
+	}
+
+	/**
+	 * 在ContentProvider中原子地读取并删除key；
+	 * 
+	 * @param key
+	 * @return 删除前的值；key不存在或者删除失败时返回null；
+	 */
+	public Object getAndRemove(String key) {
+		return executeOperation(AtomicOperation.GET_AND_REMOVE, key, null, null);
+	}
+
+	/**
+	 * @return 操作的结果，ContentProvider不可用或者写入失败时返回null；
+	 */
+	private Object executeOperation(int operation, String key, Object expect, Object value) {
+		PendingWrites pendingWrites = peekPendingWrites(mName);
+		if (pendingWrites != null) { // 保证之前apply的修改先于本次操作写入；
+			pendingWrites.flush();
+		}
+		Bundle bundle = getBundle(PATH_ATOMIC_OPERATION, key, AtomicOperation.encode(operation, expect, value));
+		ValueCache cache = getValueCache(mName);
+		if (cache != null) { // 本进程写入后不等通知，立即让缓存失效；
+			cache.invalidate();
+		}
+		detachAsyncReads();
+		if (bundle == null) {
+			return null;
+		}
+		String error = bundle.getString(KEY_ERROR);
+		if (error != null) {
+			throw new ClassCastException(error + ", key = " + key);
+		}
+		Object result = AtomicOperation.decodeResult(bundle.getByteArray(KEY));
+		if (DEBUG) {
+			Log.d(TAG, "executeOperation.mName = " + mName + ", operation = " + operation + ", key = " + key + ", result = " + result);
+		}
+		return result;
+	}
+
+	@Override
+	public Editor edit() {
+		return new EditorImpl();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+		registerOnSharedPreferenceChangeListener(listener, null, null);
+	}
+
+	/**
+	 * 只监听指定的key和以指定前缀开头的key，ContentProvider只把匹配的修改通知到本进程，其他key的修改不会唤醒本进程；<br>
+	 * keys和keyPrefixes都为null时监听全部key，与{@link #registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener)}相同；
+	 * 
+	 * @param listener
+	 * @param keys 监听的key，可以为null；
+	 * @param keyPrefixes 监听的key前缀，可以为null；
+	 */
+	public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener, Collection<String> keys, Collection<String> keyPrefixes) {
+		synchronized (this) {
+			if (mListeners == null) {
+				mListeners = new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+			}
+			Object previous = mListeners.put(listener, keys == null && keyPrefixes == null ? CONTENT : new KeyFilter(keys, keyPrefixes));
+			mListenersFilter = getListenersFilter();
+			if (!getChangeChannel(mContext).addObserver(this, mChangeObserver)) {
+				if (previous == null) {
+					mListeners.remove(listener);
+				} else {
+					mListeners.put(listener, previous);
+				}
+				mListenersFilter = getListenersFilter();
+			}
+		}
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+		synchronized (this) {
+			if (mListeners != null) {
+				boolean removed = mListeners.remove(listener) != null;
+				if (mListeners.isEmpty()) { // WeakHashMap
+					getChangeChannel(mContext).removeObserver(mName, mChangeObserver);
+				} else if (removed) {
+					mListenersFilter = getListenersFilter();
+					getChangeChannel(mContext).addObserver(this, mChangeObserver); // 缩小监听范围；
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 所有监听的key范围之和，有监听全部key的返回null；
+	 */
+	private KeyFilter getListenersFilter() {
+		KeyFilter filter = new KeyFilter(null, null);
+		for (Object value : mListeners.values()) {
+			if (!(value instanceof KeyFilter)) {
+				return null;
+			}
+			filter.addAll((KeyFilter) value);
+		}
+		return filter;
+	}
+
+	private void dispatchChanged(Bundle data) {
+		List<String> keysModified = PreferencesCodec.decodeStrings(data.getByteArray(KEY));
+		if (keysModified == null) {
+			return;
+		}
+		Map<OnSharedPreferenceChangeListener, Object> listeners;
+		synchronized (this) {
+			if (mListeners == null) {
+				return;
+			}
+			listeners = new HashMap<OnSharedPreferenceChangeListener, Object>(mListeners);
+		}
+		for (int i = keysModified.size() - 1; i >= 0; i--) {
+			final String key = keysModified.get(i);
+			for (Map.Entry<OnSharedPreferenceChangeListener, Object> entry : listeners.entrySet()) {
+				OnSharedPreferenceChangeListener listener = entry.getKey();
+				if (listener != null && (!(entry.getValue() instanceof KeyFilter) || ((KeyFilter) entry.getValue()).matches(key))) {
+					listener.onSharedPreferenceChanged(MultiprocessSharedPreferences.this, key);
 				}
 			}
 		}
@@ -524,322 +1481,3233 @@ public class MultiprocessSharedPreferences extends ContentProvider implements Sh
 			}
 		}
 
+		/**
+		 * 立即返回，修改合并到name对应的写缓冲中，由单独的后台线程用一次update()写入；
+		 * 写入完成前本进程的读取会先查写缓冲，能读到自己刚apply的值；
+		 * 写缓冲超过{@link #PENDING_WRITES_MAX_KEYS}个key时在调用线程中同步写入；Activity.onStop()之后等待写入完成（{@link #flushPendingWrites()}）；
+		 */
 		@Override
 		public void apply() {
-			setValue(PATH_APPLY);
+			if (!isSafeMode()) { // 如果设备处在“安全模式”，直接丢弃；
+				PendingWrites pendingWrites = getPendingWrites(MultiprocessSharedPreferences.this);
+				boolean full;
+				synchronized (this) {
+					full = pendingWrites.enqueue(mClear, mModified);
+				}
+				if (full) {
+					pendingWrites.flush();
+				}
+				detachAsyncReads();
+			}
 		}
 
 		@Override
 		public boolean commit() {
-			return setValue(PATH_COMMIT);
+			synchronized (this) {
+				return commitValues(mClear, mModified);
+			}
 		}
 
-		private boolean setValue(String pathSegment) {
-			boolean result = false;
-			if (!mIsSafeMode && checkInitAuthority(mContext)) { // 如果设备处在“安全模式”，返回false；
-				String[] selectionArgs = new String[] { String.valueOf(mMode), String.valueOf(mClear) };
-				synchronized (this) {
-					Uri uri = Uri.withAppendedPath(Uri.withAppendedPath(AUTHORITY_URI, mName), pathSegment);
-					ContentValues values = ReflectionUtil.contentValuesNewInstance((HashMap<String, Object>) mModified);
-					try {
-						result = mContext.getContentResolver().update(uri, values, null, selectionArgs) > 0;
-					} catch (IllegalArgumentException e) {
-						// 解决ContentProvider所在进程被杀时的抛出的异常：
-						// java.lang.IllegalArgumentException: Unknown URI content://xxx.xxx.xxx/xxx/xxx
-						// at android.content.ContentResolver.update(ContentResolver.java:1312)
-						if (DEBUG) {
-							e.printStackTrace();
-						}
-					} catch (RuntimeException e) {
-						if (!isPackageManagerHasDiedException(e) && !isUnstableCountException(e)) {
-							throw new RuntimeException(e);
-						}
-					}
-				}
+		/**
+		 * 在异步接口的线程池中commit()，不阻塞调用线程；多次commitAsync()按调用顺序依次写入；<br>
+		 * 调用时复制当前的修改，之后对这个Editor的修改不影响本次写入；写入完成前本进程的读取不一定能读到这些修改；
+		 * 
+		 * @param executor 执行callback的Executor，为null时在跨进程调用的线程中执行；
+		 * @param callback 可以为null，只使用返回的Future；
+		 * @return 与commit()的返回值相同，不支持取消；线程池队列已满时以RejectedExecutionException结束；
+		 */
+		public Future<Boolean> commitAsync(Executor executor, AsyncCallback<Boolean> callback) {
+			final boolean clear;
+			final Map<String, Object> modified;
+			synchronized (this) {
+				clear = mClear;
+				modified = new HashMap<String, Object>(mModified);
 			}
-			if (DEBUG) {
-				Log.d(TAG, "setValue.mName = " + mName + ", pathSegment = " + pathSegment + ", mModified.size() = " + mModified.size());
+			return getAsyncExecutor().submitSerial(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					boolean result = commitValues(clear, modified);
+					detachAsyncReads();
+					return result;
+				}
+			}, executor, callback);
+		}
+	}
+
+	private boolean commitValues(boolean clear, Map<String, Object> modified) {
+		PendingWrites pendingWrites = peekPendingWrites(mName);
+		if (pendingWrites != null) { // 保证之前apply的修改先于本次commit写入；
+			pendingWrites.flush();
+		}
+		return setValue(PATH_COMMIT, clear, modified);
+	}
+
+	/**
+	 * 本进程写入后，之后的异步读取不再共用写入之前开始的跨进程调用；
+	 */
+	private void detachAsyncReads() {
+		AsyncIpcExecutor executor;
+		synchronized (MultiprocessSharedPreferences.class) {
+			executor = sAsyncExecutor;
+		}
+		if (executor != null) {
+			executor.detachInFlight(mName);
+		}
+	}
+
+	private boolean setValue(String pathSegment, boolean clear, Map<String, Object> modified) {
+		boolean result = false;
+		if (!isSafeMode() && checkInitAuthority(mContext)) { // 如果设备处在“安全模式”，返回false；
+			Bundle extras = null;
+			ContentValues values = null;
+			if (Build.VERSION.SDK_INT >= 11) { // Android 3.0
+				extras = new Bundle();
+				extras.putInt(KEY_MODE, mMode);
+				extras.putBoolean(KEY_CLEAR, clear);
+				HashMap<String, Object> blobs = writeBlobs(modified);
+				if (!blobs.isEmpty()) { // 已通过openFile()写入的不再放入extras；
+					modified = new HashMap<String, Object>(modified);
+					modified.keySet().removeAll(blobs.keySet());
+					extras.putByteArray(KEY_BLOBS, PreferencesCodec.encodeMap(blobs));
+				}
+				extras.putByteArray(KEY, PreferencesCodec.encodeMap(modified));
+			} else {
+				values = ReflectionUtil.contentValuesNewInstance((HashMap<String, Object>) modified);
 			}
-			return result;
+			result = updateProvider(pathSegment, extras, values, new String[] { String.valueOf(mMode), String.valueOf(clear) });
+		}
+		if (DEBUG) {
+			Log.d(TAG, "setValue.mName = " + mName + ", pathSegment = " + pathSegment + ", modified.size() = " + modified.size());
 		}
+		return result;
 	}
 
-	private Object getValue(String pathSegment, String key, Object defValue) {
-		Object v = null;
-		if (!mIsSafeMode && checkInitAuthority(mContext)) { // 如果设备处在“安全模式”，返回defValue；
-			Uri uri = Uri.withAppendedPath(Uri.withAppendedPath(AUTHORITY_URI, mName), pathSegment);
-			String[] projection = null;
-			if (PATH_GET_STRING_SET.equals(pathSegment) && defValue != null) {
-				@SuppressWarnings("unchecked")
-				Set<String> set = (Set<String>) defValue;
-				projection = new String[set.size()];
-				set.toArray(projection);
-			}
-			String[] selectionArgs = new String[] { String.valueOf(mMode), key, defValue == null ? null : String.valueOf(defValue) };
-			Cursor cursor = null;
+	/**
+	 * 超过{@link #BLOB_THRESHOLD}的字符串先通过openFile()返回的管道写入ContentProvider的内存，失败的仍放在extras中传递；
+	 * 
+	 * @return key -> token；
+	 */
+	private HashMap<String, Object> writeBlobs(Map<String, Object> modified) {
+		HashMap<String, Object> blobs = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> entry : modified.entrySet()) {
+			if (!(entry.getValue() instanceof String) || ((String) entry.getValue()).length() <= BLOB_THRESHOLD) {
+				continue;
+			}
+			String token = UUID.randomUUID().toString();
+			OutputStream out = null;
 			try {
-				cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
-			} catch (SecurityException e) {
-				// 解决崩溃：
-				// java.lang.SecurityException: Permission Denial: reading com.qihoo.storager.MultiprocessSharedPreferences uri content://com.qihoo.appstore.MultiprocessSharedPreferences/LogUtils/getBoolean from pid=2446, uid=10116 requires the provider be exported, or grantUriPermission()
-				// at android.content.ContentProvider$Transport.enforceReadPermission(ContentProvider.java:332)
-				// ...
-				// at android.content.ContentResolver.query(ContentResolver.java:317)
+				ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(getBlobUri(token), "w");
+				if (pfd == null) {
+					continue;
+				}
+				out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+				Writer writer = new OutputStreamWriter(new BufferedOutputStream(out), CHARSET);
+				writer.write((String) entry.getValue());
+				writer.flush();
+				blobs.put(entry.getKey(), token);
+			} catch (IOException e) {
 				if (DEBUG) {
 					e.printStackTrace();
 				}
-			} catch (RuntimeException e) {
-				if (!isPackageManagerHasDiedException(e) && !isUnstableCountException(e)) {
-					throw new RuntimeException(e);
-				}
-			}
-			if (cursor != null) {
-				Bundle bundle = null;
-				try {
-					bundle = cursor.getExtras();
-				} catch (RuntimeException e) {
-					// 解决ContentProvider所在进程被杀时的抛出的异常：
-					// java.lang.RuntimeException: android.os.DeadObjectException
-					// at android.database.BulkCursorToCursorAdaptor.getExtras(BulkCursorToCursorAdaptor.java:173)
-					// at android.database.CursorWrapper.getExtras(CursorWrapper.java:94)
-					if (DEBUG) {
-						e.printStackTrace();
-					}
+			} catch (RuntimeException e) { // ContentProvider所在进程死亡等，仍放在extras中传递；
+				if (DEBUG) {
+					e.printStackTrace();
 				}
-				if (bundle != null) {
-					v = bundle.get(KEY);
-					bundle.clear();
+			} finally {
+				if (out != null) {
+					closeQuietly(out);
 				}
-				cursor.close();
 			}
 		}
-		if (DEBUG) {
-			Log.d(TAG, "getValue.mName = " + mName + ", pathSegment = " + pathSegment + ", key = " + key + ", defValue = " + defValue);
-		}
-		return v == null ? defValue : v;
+		return blobs;
 	}
 
-	private String makeAction(String name) {
-		return String.format("%1$s_%2$s", MultiprocessSharedPreferences.class.getName(), name);
+	/**
+	 * @return token对应的大的字符串，失败时返回null，由调用方改为直接放在Bundle中读取；
+	 */
+	private String readBlob(String token) {
+		try {
+			ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(getBlobUri(token), "r");
+			return pfd == null ? null : readString(new ParcelFileDescriptor.AutoCloseInputStream(pfd), BLOB_THRESHOLD * 2);
+		} catch (IOException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (RuntimeException e) {
+			if (!isPackageManagerHasDiedException(e) && !isUnstableCountException(e)) {
+				throw new RuntimeException(e);
+			}
+		}
+		return null;
 	}
 
-	@Override
-	public boolean onCreate() {
-		if (checkInitAuthority(getContext())) {
-			mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_ALL, GET_ALL);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_STRING, GET_STRING);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_INT, GET_INT);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_LONG, GET_LONG);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_FLOAT, GET_FLOAT);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_BOOLEAN, GET_BOOLEAN);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_CONTAINS, CONTAINS);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_APPLY, APPLY);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_COMMIT, COMMIT);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER);
-			mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + PATH_GET_STRING_SET, GET_STRING_SET);
-			return true;
-		} else {
-			return false;
-		}
+	private Uri getBlobUri(String token) {
+		return Uri.withAppendedPath(Uri.withAppendedPath(AUTHORITY_URI, mName), PATH_BLOB).buildUpon().appendQueryParameter(KEY_TOKEN, token).build();
 	}
 
-	@Override
-	public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-		String name = uri.getPathSegments().get(0);
-		int mode = Integer.parseInt(selectionArgs[0]);
-		String key = selectionArgs[1];
-		String defValue = selectionArgs[2];
-		Bundle bundle = new Bundle();
-		switch (mUriMatcher.match(uri)) {
-			case GET_ALL:
-				bundle.putSerializable(KEY, (HashMap<String, ?>) getSystemSharedPreferences(name, mode).getAll());
-				break;
-			case GET_STRING:
-				bundle.putString(KEY, getSystemSharedPreferences(name, mode).getString(key, defValue));
-				break;
-			case GET_INT:
-				bundle.putInt(KEY, getSystemSharedPreferences(name, mode).getInt(key, Integer.parseInt(defValue)));
-				break;
-			case GET_LONG:
-				bundle.putLong(KEY, getSystemSharedPreferences(name, mode).getLong(key, Long.parseLong(defValue)));
-				break;
-			case GET_FLOAT:
-				bundle.putFloat(KEY, getSystemSharedPreferences(name, mode).getFloat(key, Float.parseFloat(defValue)));
-				break;
-			case GET_BOOLEAN:
-				bundle.putBoolean(KEY, getSystemSharedPreferences(name, mode).getBoolean(key, Boolean.parseBoolean(defValue)));
-				break;
-			case CONTAINS:
-				bundle.putBoolean(KEY, getSystemSharedPreferences(name, mode).contains(key));
-				break;
-			case REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER: {
-				checkInitListenersCount();
-				Integer countInteger = mListenersCount.get(name);
-				int count = (countInteger == null ? 0 : countInteger) + 1;
-				mListenersCount.put(name, count);
-				countInteger = mListenersCount.get(name);
-				bundle.putBoolean(KEY, count == (countInteger == null ? 0 : countInteger));
-			}
-				break;
-			case UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER: {
-				checkInitListenersCount();
-				Integer countInteger = mListenersCount.get(name);
-				int count = (countInteger == null ? 0 : countInteger) - 1;
-				if (count <= 0) {
-					mListenersCount.remove(name);
-					bundle.putBoolean(KEY, !mListenersCount.containsKey(name));
-				} else {
-					mListenersCount.put(name, count);
-					countInteger = mListenersCount.get(name);
-					bundle.putBoolean(KEY, count == (countInteger == null ? 0 : countInteger));
+	/**
+	 * Android 3.0以上使用call()传递extras，低版本使用update()传递values；
+	 */
+	private boolean updateProvider(String pathSegment, Bundle extras, ContentValues values, String[] selectionArgs) {
+		boolean result = false;
+		try {
+			if (extras != null) {
+				Bundle bundle = getProviderClient(mContext).call(AUTHORITY_URI, pathSegment, mName, extras);
+				result = bundle != null && bundle.getBoolean(KEY);
+				if (bundle != null) {
+					sProviderConnected = true;
 				}
+			} else {
+				Uri uri = Uri.withAppendedPath(Uri.withAppendedPath(AUTHORITY_URI, mName), pathSegment);
+				result = mContext.getContentResolver().update(uri, values, null, selectionArgs) > 0;
+				sProviderConnected = true; // 没有抛出异常就是已经连接上；
 			}
-				break;
-			case GET_STRING_SET: {
-				if (Build.VERSION.SDK_INT >= 11) { // Android 3.0
-					Set<String> set = null;
-					if (projection != null) {
-						set = new HashSet<String>(Arrays.asList(projection));
-					}
-					bundle.putSerializable(KEY, (HashSet<String>) ReflectionUtil.sharedPreferencesGetStringSet(getSystemSharedPreferences(name, mode), key, set));
-				}
+			ValueCache cache = getValueCache(mName);
+			if (cache != null) { // 本进程写入后不等广播，立即让缓存失效；
+				cache.invalidate();
+			}
+		} catch (IllegalArgumentException e) {
+			// 解决ContentProvider所在进程被杀时的抛出的异常：
+			// java.lang.IllegalArgumentException: Unknown URI content://xxx.xxx.xxx/xxx/xxx
+			// at android.content.ContentResolver.update(ContentResolver.java:1312)
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (RuntimeException e) {
+			if (!isPackageManagerHasDiedException(e) && !isUnstableCountException(e)) {
+				throw new RuntimeException(e);
 			}
-				break;
-			default:
-				if (DEBUG) {
-					throw new IllegalArgumentException("At query, This is Unknown Uri：" + uri + ", AUTHORITY = " + AUTHORITY);
-				}
 		}
-		return new BundleCursor(bundle);
+		return result;
 	}
 
-	@SuppressWarnings("unchecked")
-	@Override
-	public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-		int result = 0;
-		String name = uri.getPathSegments().get(0);
-		int mode = Integer.parseInt(selectionArgs[0]);
-		SharedPreferences preferences = getSystemSharedPreferences(name, mode);
-		int match = mUriMatcher.match(uri);
-		switch (match) {
-			case APPLY:
-			case COMMIT:
-				boolean hasListeners = mListenersCount != null && mListenersCount.get(name) != null && mListenersCount.get(name) > 0;
-				ArrayList<String> keysModified = null;
-				Map<String, Object> map = null;
-				if (hasListeners) {
-					keysModified = new ArrayList<String>();
-					map = (Map<String, Object>) preferences.getAll();
-				}
-				Editor editor = preferences.edit();
-				boolean clear = Boolean.parseBoolean(selectionArgs[1]);
-				if (clear) {
-					if (hasListeners && !map.isEmpty()) {
-						for (Map.Entry<String, Object> entry : map.entrySet()) {
-							keysModified.add(entry.getKey());
-						}
+	/**
+	 * 开始一次跨多个name的批量修改，{@link Batch#commit()}时一次跨进程调用全部写入；
+	 */
+	public static Batch beginBatch(Context context) {
+		return new Batch(context);
+	}
+
+	/**
+	 * 跨多个name的批量修改，例如同时修改账号、会话和设置；<br>
+	 * 所有修改一次跨进程调用传给ContentProvider，ContentProvider先写重做日志并同步到磁盘，再逐个name写入，每写入一个name就从日志中去掉；
+	 * 中途崩溃时下次启动补写剩余的name；某个name写入失败时commit()返回false，剩余的修改留在日志中，ContentProvider在后台重试几次，仍失败时下次启动时重做；
+	 * 每个name只通知一次；其他进程可能在逐个写入（或重试）的过程中读到部分name已修改；
+	 */
+	public static final class Batch {
+		private final Context mContext;
+		private final HashMap<String, MultiprocessSharedPreferences> mPreferences = new LinkedHashMap<String, MultiprocessSharedPreferences>();
+		private final HashMap<String, EditorImpl> mEditors = new HashMap<String, EditorImpl>();
+
+		private Batch(Context context) {
+			mContext = context;
+		}
+
+		/**
+		 * @return name对应的Editor，只能通过{@link #commit()}提交，不要调用它的commit()和apply()；同一个name多次调用返回同一个Editor；
+		 */
+		public Editor edit(String name, int mode) {
+			synchronized (this) {
+				EditorImpl editor = mEditors.get(name);
+				if (editor == null) {
+					MultiprocessSharedPreferences sp = getInstance(mContext, name, mode);
+					editor = sp.new EditorImpl();
+					mPreferences.put(name, sp);
+					mEditors.put(name, editor);
+				}
+				return editor;
+			}
+		}
+
+		/**
+		 * 与commit()相同，写入磁盘后返回；之前apply()的修改先写入；
+		 * 
+		 * @return 是否全部修改都已生效；false时可能部分name已生效，其余的修改如果已写入重做日志，会由ContentProvider重试或者下次启动时补写；
+		 */
+		public boolean commit() {
+			synchronized (this) {
+				if (mPreferences.isEmpty()) {
+					return true;
+				}
+				List<BatchJournal.Entry> entries = new ArrayList<BatchJournal.Entry>(mPreferences.size());
+				MultiprocessSharedPreferences first = null;
+				for (MultiprocessSharedPreferences sp : mPreferences.values()) {
+					PendingWrites pendingWrites = peekPendingWrites(sp.mName);
+					if (pendingWrites != null) { // 保证之前apply的修改先于本次写入；
+						pendingWrites.flush();
+					}
+					EditorImpl editor = mEditors.get(sp.mName);
+					synchronized (editor) {
+						entries.add(new BatchJournal.Entry(sp.mName, sp.mMode, editor.mClear, new HashMap<String, Object>(editor.mModified)));
+					}
+					if (first == null) {
+						first = sp;
 					}
-					editor.clear();
 				}
-				for (Map.Entry<String, Object> entry : values.valueSet()) {
-					String k = entry.getKey();
-					Object v = entry.getValue();
-					// Android 5.L_preview : "this" is the magic value for a removal mutation. In addition,
-					// setting a value to "null" for a given key is specified to be
-					// equivalent to calling remove on that key.
-					if (v instanceof EditorImpl || v == null) {
-						editor.remove(k);
-						if (hasListeners && map.containsKey(k)) {
-							keysModified.add(k);
-						}
+				boolean result = false;
+				if (!first.isSafeMode() && first.checkInitAuthority(mContext)) { // 如果设备处在“安全模式”，返回false；
+					byte[] data = BatchJournal.encode(entries);
+					Bundle extras = null;
+					ContentValues values = new ContentValues();
+					if (Build.VERSION.SDK_INT >= 11) { // Android 3.0
+						extras = new Bundle();
+						extras.putByteArray(KEY, data);
 					} else {
-						if (hasListeners && (!map.containsKey(k) || (map.containsKey(k) && !v.equals(map.get(k))))) {
-							keysModified.add(k);
+						values.put(KEY, data);
+					}
+					result = first.updateProvider(PATH_BATCH_COMMIT, extras, values, new String[] { String.valueOf(first.mMode), String.valueOf(false) });
+					for (MultiprocessSharedPreferences sp : mPreferences.values()) {
+						ValueCache cache = getValueCache(sp.mName);
+						if (cache != null) {
+							cache.invalidate();
 						}
+						sp.detachAsyncReads();
 					}
+				}
+				if (DEBUG) {
+					Log.d(TAG, "Batch.commit.names = " + mPreferences.keySet() + ", result = " + result);
+				}
+				return result;
+			}
+		}
+	}
 
-					if (v instanceof String) {
-						editor.putString(k, (String) v);
-					} else if (v instanceof Set) {
-						ReflectionUtil.editorPutStringSet(editor, k, (Set<String>) v); // Android 3.0
-					} else if (v instanceof Integer) {
-						editor.putInt(k, (Integer) v);
-					} else if (v instanceof Long) {
-						editor.putLong(k, (Long) v);
-					} else if (v instanceof Float) {
-						editor.putFloat(k, (Float) v);
-					} else if (v instanceof Boolean) {
-						editor.putBoolean(k, (Boolean) v);
-					}
+	@SuppressWarnings("unchecked")
+	private Object getValue(String pathSegment, String key, Object defValue) {
+		PendingWrites pendingWrites = isCacheablePath(pathSegment) ? peekPendingWrites(mName) : null;
+		if (pendingWrites != null) { // 先查本进程还未写入的apply；
+			if (PATH_GET_ALL.equals(pathSegment)) {
+				Map<String, Object> map = (Map<String, Object>) getStoredValue(PATH_GET_ALL, null, null);
+				map = map == null ? new HashMap<String, Object>() : new HashMap<String, Object>(map);
+				pendingWrites.applyTo(map);
+				return map;
+			}
+			Object v = pendingWrites.get(key);
+			if (v != PendingWrites.NOT_PENDING) {
+				if (PATH_CONTAINS.equals(pathSegment)) {
+					return v != null;
 				}
-				if (hasListeners && keysModified.isEmpty()) {
-					result = 1;
-				} else {
-					switch (match) {
-						case APPLY:
-							ReflectionUtil.editorApply(editor); // Android 2.3
-							result = 1;
-							// Okay to notify the listeners before it's hit disk
-							// because the listeners should always get the same
-							// SharedPreferences instance back, which has the
-							// changes reflected in memory.
-							notifyListeners(name, keysModified);
-							break;
-						case COMMIT:
-							if (editor.commit()) {
-								result = 1;
-								notifyListeners(name, keysModified);
-							}
-							break;
-						default:
-							break;
+				return getCachedValue(Collections.singletonMap(key, v), pathSegment, key, defValue);
+			}
+		}
+		return getStoredValue(pathSegment, key, defValue);
+	}
+
+	/**
+	 * 读取已经写入ContentProvider的值，开启缓存时优先读缓存；
+	 */
+	private Object getStoredValue(String pathSegment, String key, Object defValue) {
+		Object v = null;
+		boolean probePending = isProbePending();
+		if ((probePending || !isSafeMode()) && isCacheablePath(pathSegment)) {
+			Map<String, Object> notifiedValues = PATH_GET_ALL.equals(pathSegment) ? null : ChangeChannel.getDispatchingValues(mName);
+			if (notifiedValues != null && notifiedValues.containsKey(key)) { // 正在分发的变更通知中带有这个key修改后的值；
+				v = notifiedValues.get(key);
+				if (PATH_CONTAINS.equals(pathSegment)) {
+					return v != null;
+				}
+				return getCachedValue(Collections.singletonMap(key, v), pathSegment, key, defValue);
+			}
+			Map<String, Object> mappedValues = getMappedValues();
+			if (mappedValues != null) {
+				return getCachedValue(mappedValues, pathSegment, key, defValue);
+			}
+			ValueCache cache = getValueCache(mName);
+			if (cache != null) {
+				Map<String, Object> values = probePending ? cache.peekValues() : cache.getValues(this);
+				if (values != null) {
+					return getCachedValue(values, pathSegment, key, defValue);
+				}
+			}
+		}
+		if (probePending) { // 不在主线程上等待检查，返回默认值；
+			return defValue;
+		}
+		Bundle bundle = getBundle(pathSegment, key, defValue);
+		if (bundle != null) {
+			String token = PATH_GET_STRING.equals(pathSegment) ? bundle.getString(KEY_BLOB) : null;
+			v = token == null ? getBundleValue(pathSegment, bundle) : readBlob(token);
+			bundle.clear();
+			if (token != null && v == null) { // 通过openFile()读取失败，改为直接放在Bundle中返回；
+				bundle = getBundle(PATH_GET_STRING_INLINE, key, defValue);
+				v = bundle == null ? null : getBundleValue(PATH_GET_STRING_INLINE, bundle);
+			}
+		}
+		if (DEBUG) {
+			Log.d(TAG, "getValue.mName = " + mName + ", pathSegment = " + pathSegment + ", key = " + key + ", defValue = " + defValue);
+		}
+		return v == null ? defValue : v;
+	}
+
+	/**
+	 * getAll()和getStringSet()的结果使用{@link PreferencesCodec}编码传递；
+	 */
+	private static Object getBundleValue(String pathSegment, Bundle bundle) {
+		if (PATH_GET_ALL.equals(pathSegment) || PATH_GET_VALUES.equals(pathSegment)) {
+			Object v = bundle.get(KEY);
+			return v instanceof byte[] ? PreferencesCodec.decodeMap((byte[]) v) : v; // 分页取回的getAll()已经解码；
+		} else if (PATH_GET_STRING_SET.equals(pathSegment)) {
+			return PreferencesCodec.decodeStringSet(bundle.getByteArray(KEY));
+		}
+		return bundle.get(KEY);
+	}
+
+	/**
+	 * @return 内存映射文件中的全部数据，不能修改；没有开启、ContentProvider还没有发布或者读不到一致的数据时返回null；
+	 * 只开启了冷启动快照时，本进程连接上ContentProvider之后也返回null；
+	 */
+	private Map<String, Object> getMappedValues() {
+		MappedPreferencesStore store;
+		long generation;
+		long now = SystemClock.uptimeMillis();
+		boolean coldStart;
+		synchronized (sMappedStores) {
+			MappedStoreHolder holder = sMappedStores.get(mName);
+			if (holder == null) {
+				return null;
+			}
+			coldStart = !holder.mapped;
+			if (coldStart && sProviderConnected) {
+				if (holder.store != null) { // 已经切换为跨进程读取，快照不再使用；
+					holder.store.close();
+					holder.store = null;
+				}
+				return null;
+			}
+			if (holder.store == null) {
+				if (holder.retryTime != 0 && now < holder.retryTime) {
+					return null;
+				}
+				holder.generation = readMappedStoreGeneration(mContext);
+				try {
+					if (holder.generation == 0) {
+						throw new IOException("Provider never started");
 					}
+					holder.store = MappedPreferencesStore.openForRead(getMappedStoreFile(mContext, mName));
+				} catch (IOException e) { // ContentProvider还没有发布；
+					holder.retryTime = now + MAPPED_STORE_RETRY_INTERVAL;
+					return null;
 				}
-				values.clear();
-				break;
-			default:
+			}
+			store = holder.store;
+			generation = holder.generation;
+		}
+		Map<String, Object> values = store.read(generation);
+		// ContentProvider已不再更新这个文件，或者文件没有被最后一次启动的ContentProvider确认过（也可能是新启动的ContentProvider刚刚确认过），稍后重新打开；
+		if (values == null && (store.isInvalidated() || store.getGeneration() != generation)) {
+			synchronized (sMappedStores) {
+				MappedStoreHolder holder = sMappedStores.get(mName);
+				if (holder != null && holder.store == store) {
+					holder.store = null;
+					holder.retryTime = now + MAPPED_STORE_RETRY_INTERVAL;
+				}
+			}
+			store.close();
+		}
+		if (values != null && coldStart) {
+			connectProviderInBackground();
+		}
+		return values;
+	}
+
+	/**
+	 * 冷启动快照只在连接ContentProvider期间使用，在后台线程完成第一次访问；
+	 */
+	private void connectProviderInBackground() {
+		synchronized (MultiprocessSharedPreferences.class) {
+			if (sProviderConnected || sProviderConnecting) {
+				return;
+			}
+			sProviderConnecting = true;
+		}
+		getBackgroundHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				getBundle(PATH_CONTAINS, null, null);
+				synchronized (MultiprocessSharedPreferences.class) {
+					sProviderConnecting = false;
+				}
+			}
+		});
+	}
+
+	private static boolean isCacheablePath(String pathSegment) {
+		return PATH_GET_ALL.equals(pathSegment)
+				|| PATH_GET_STRING.equals(pathSegment)
+				|| PATH_GET_INT.equals(pathSegment)
+				|| PATH_GET_LONG.equals(pathSegment)
+				|| PATH_GET_FLOAT.equals(pathSegment)
+				|| PATH_GET_BOOLEAN.equals(pathSegment)
+				|| PATH_CONTAINS.equals(pathSegment)
+				|| PATH_GET_STRING_SET.equals(pathSegment);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object getCachedValue(Map<String, Object> values, String pathSegment, String key, Object defValue) {
+		if (PATH_GET_ALL.equals(pathSegment)) {
+			return new HashMap<String, Object>(values);
+		} else if (PATH_CONTAINS.equals(pathSegment)) {
+			return values.containsKey(key);
+		}
+		Object v = values.get(key);
+		if (v instanceof Set) {
+			v = new HashSet<String>((Set<String>) v);
+		}
+		return v == null ? defValue : v;
+	}
+
+	/**
+	 * 跨进程查询，返回ContentProvider填充的Bundle，失败时返回null；
+	 */
+	private Bundle getBundle(String pathSegment, String key, Object defValue) {
+		Bundle bundle = null;
+		if (!isSafeMode() && checkInitAuthority(mContext)) { // 如果设备处在“安全模式”，返回null；
+			if (Build.VERSION.SDK_INT >= 11) { // Android 3.0
+				Bundle extras = new Bundle();
+				extras.putInt(KEY_MODE, mMode);
+				extras.putString(KEY_KEY, key);
+				putValue(extras, KEY, defValue);
+				bundle = PATH_GET_ALL.equals(pathSegment) ? callGetAll(extras) : callProvider(pathSegment, extras);
+			} else {
+				bundle = queryProvider(pathSegment, key, defValue);
+			}
+		}
+		return bundle;
+	}
+
+	/**
+	 * Android 3.0以上通过ContentResolver.call()直接传递Bundle，不需要创建Cursor，默认值也不需要转换成字符串；
+	 */
+	private Bundle callProvider(String method, Bundle extras) {
+		Bundle bundle = null;
+		try {
+			bundle = getProviderClient(mContext).call(AUTHORITY_URI, method, mName, extras);
+			if (bundle != null) {
+				sProviderConnected = true;
+			}
+		} catch (SecurityException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (IllegalArgumentException e) {
+			// 解决ContentProvider所在进程被杀时的抛出的异常：
+			// java.lang.IllegalArgumentException: Unknown URI content://xxx.xxx.xxx
+			// at android.content.ContentResolver.call(ContentResolver.java:1322)
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (RuntimeException e) {
+			if (!isPackageManagerHasDiedException(e) && !isUnstableCountException(e)) {
+				throw new RuntimeException(e);
+			}
+		}
+		return bundle;
+	}
+
+	/**
+	 * 增量同步：返回name在序号sequence之后的全部修改，调用方保存结果中的generation和sequence用于下一次调用；<br>
+	 * 每次成功写入都会分配一个按name递增的序号，ContentProvider在内存中为每个name保留最近{@link #CHANGE_LOG_MAX_SIZE}次修改；
+	 * 序号早于保留的修改、ContentProvider所在进程重启过（generation不同）或者修改中有clear()时返回全部数据；
+	 * 
+	 * @param generation 上一次结果的generation，0表示第一次同步，直接返回全部数据；
+	 * @param sequence 上一次结果的sequence；
+	 * @return 失败时返回null；
+	 */
+	@SuppressWarnings("unchecked")
+	public ChangeSet getChangesSince(long generation, long sequence) {
+		PendingWrites pendingWrites = peekPendingWrites(mName);
+		if (pendingWrites != null) { // 本进程apply的修改先写入，保证包含在结果中；
+			pendingWrites.flush();
+		}
+		Bundle bundle = generation == 0 ? null : getBundle(PATH_GET_CHANGES_SINCE, String.valueOf(generation), sequence);
+		HashMap<String, Object> changes = bundle == null ? null : PreferencesCodec.decodeMap(bundle.getByteArray(KEY));
+		if (changes != null) {
+			boolean clear = bundle.getBoolean(KEY_CLEAR);
+			if (clear) { // 清空之后的修改就是全部数据；
+				changes.values().removeAll(Collections.singleton(null));
+			}
+			return new ChangeSet(bundle.getLong(KEY_GENERATION), bundle.getLong(KEY_VERSION), clear, changes);
+		}
+		bundle = getBundle(PATH_GET_ALL, null, null);
+		Map<String, Object> values = bundle == null ? null : (Map<String, Object>) getBundleValue(PATH_GET_ALL, bundle);
+		if (values == null) {
+			return null;
+		}
+		return new ChangeSet(bundle.getLong(KEY_GENERATION), bundle.getLong(KEY_VERSION), true, values);
+	}
+
+	/**
+	 * 诊断用：ContentProvider中存储引擎的命中、加载和卸载统计，与name无关；
+	 * 
+	 * @return 失败时返回null；
+	 */
+	public StorageStats getStorageStats() {
+		Bundle bundle = getBundle(PATH_GET_STORAGE_STATS, null, null);
+		long[] stats = bundle == null ? null : bundle.getLongArray(KEY);
+		return stats == null || stats.length < 6 ? null : new StorageStats(stats[0], stats[1], stats[2], (int) stats[3], stats[4], stats[5]);
+	}
+
+	/**
+	 * 诊断用：ContentProvider中当前name存活的变更监听，已死亡的客户端进程的注册会被清理；
+	 * 
+	 * @return 客户端进程pid -> 注册数；失败时返回空Map；
+	 */
+	public Map<Integer, Integer> getListenerCounts() {
+		Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		Bundle bundle = getBundle(PATH_GET_LISTENER_COUNTS, null, null);
+		int[] pids = bundle == null ? null : bundle.getIntArray(KEY_KEYS);
+		int[] values = bundle == null ? null : bundle.getIntArray(KEY);
+		if (pids != null && values != null) {
+			for (int i = 0; i < pids.length && i < values.length; i++) {
+				counts.put(pids[i], values[i]);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * 向ContentProvider注册或注销name的变更监听；<br>
+	 * messenger不为null时注册为直接推送的Messenger，否则按计数注册广播方式的监听；
+	 * 
+	 * @param filter 监听的key范围，null表示全部key，只对Messenger有效；
+	 * @return 结果中KEY为是否成功，KEY_GENERATION为ContentProvider的启动标识；失败时返回null；
+	 */
+	private Bundle setChangeListenerRegistered(boolean registered, Messenger messenger, KeyFilter filter) {
+		String path = registered ? PATH_REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER : PATH_UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER;
+		if (messenger == null) {
+			return getBundle(path, null, false);
+		}
+		if (isSafeMode() || !checkInitAuthority(mContext)) {
+			return null;
+		}
+		Bundle extras = new Bundle();
+		extras.putInt(KEY_MODE, mMode);
+		extras.putParcelable(KEY_MESSENGER, messenger);
+		extras.putBoolean(KEY_VALUES, sNotifyValuesEnabled);
+		if (filter != null) {
+			filter.writeTo(extras);
+		}
+		return callProvider(path, extras);
+	}
+
+	/**
+	 * getAll()的结果较大时ContentProvider会分页返回，按KEY_TOKEN依次取回剩余的页，边取边合并；<br>
+	 * 返回的Bundle中KEY对应的是解码后的Map（只在本进程内使用，不会再序列化），版本号等取第一页的；
+	 */
+	private Bundle callGetAll(Bundle extras) {
+		for (int i = 0; i < 2; i++) { // ContentProvider所在进程中途重启或者快照已过期时，从头重新读取一次；
+			Bundle bundle = callProvider(PATH_GET_ALL, extras);
+			String token = bundle == null ? null : bundle.getString(KEY_TOKEN);
+			if (token == null) {
+				return bundle;
+			}
+			HashMap<String, Object> map = PreferencesCodec.decodeMap(bundle.getByteArray(KEY));
+			while (token != null) {
+				Bundle pageExtras = new Bundle();
+				pageExtras.putInt(KEY_MODE, mMode);
+				pageExtras.putString(KEY_TOKEN, token);
+				Bundle page = callProvider(PATH_GET_ALL, pageExtras);
+				if (page == null || !page.containsKey(KEY)) {
+					map = null;
+					break;
+				}
+				map.putAll(PreferencesCodec.decodeMap(page.getByteArray(KEY)));
+				token = page.getString(KEY_TOKEN);
+			}
+			if (map != null) {
 				if (DEBUG) {
-					throw new IllegalArgumentException("At update, This is Unknown Uri：" + uri + ", AUTHORITY = " + AUTHORITY);
+					Log.d(TAG, "callGetAll.mName = " + mName + ", map.size() = " + map.size());
 				}
+				bundle.remove(KEY_TOKEN);
+				bundle.putSerializable(KEY, map);
+				return bundle;
+			}
 		}
-		return result;
+		return null;
 	}
 
-	@Override
-	public String getType(@NonNull Uri uri) {
-		throw new UnsupportedOperationException("No external call");
+	private Bundle queryProvider(String pathSegment, String key, Object defValue) {
+		Bundle bundle = null;
+		Uri uri = Uri.withAppendedPath(Uri.withAppendedPath(AUTHORITY_URI, mName), pathSegment);
+		String[] projection = null;
+		if (PATH_GET_STRING_SET.equals(pathSegment) && defValue != null) {
+			@SuppressWarnings("unchecked")
+			Set<String> set = (Set<String>) defValue;
+			projection = new String[set.size()];
+			set.toArray(projection);
+		} else if (defValue instanceof String[]) { // getValues()的keys也放在projection中；
+			projection = (String[]) defValue;
+			defValue = null;
+		} else if (defValue instanceof byte[]) { // 原子操作的参数；
+			defValue = Base64.encodeToString((byte[]) defValue, Base64.NO_WRAP);
+		}
+		String[] selectionArgs = new String[] { String.valueOf(mMode), key, defValue == null ? null : String.valueOf(defValue) };
+		Cursor cursor = null;
+		try {
+			cursor = mContext.getContentResolver().query(uri, projection, null, selectionArgs, null);
+		} catch (SecurityException e) {
+			// 解决崩溃：
+			// java.lang.SecurityException: Permission Denial: reading com.qihoo.storager.MultiprocessSharedPreferences uri content://com.qihoo.appstore.MultiprocessSharedPreferences/LogUtils/getBoolean from pid=2446, uid=10116 requires the provider be exported, or grantUriPermission()
+			// at android.content.ContentProvider$Transport.enforceReadPermission(ContentProvider.java:332)
+			// ...
+			// at android.content.ContentResolver.query(ContentResolver.java:317)
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		} catch (RuntimeException e) {
+			if (!isPackageManagerHasDiedException(e) && !isUnstableCountException(e)) {
+				throw new RuntimeException(e);
+			}
+		}
+		if (cursor != null) {
+			sProviderConnected = true;
+			try {
+				bundle = cursor.getExtras();
+			} catch (RuntimeException e) {
+				// 解决ContentProvider所在进程被杀时的抛出的异常：
+				// java.lang.RuntimeException: android.os.DeadObjectException
+				// at android.database.BulkCursorToCursorAdaptor.getExtras(BulkCursorToCursorAdaptor.java:173)
+				// at android.database.CursorWrapper.getExtras(CursorWrapper.java:94)
+				if (DEBUG) {
+					e.printStackTrace();
+				}
+			}
+			cursor.close();
+		}
+		return bundle;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void putValue(Bundle bundle, String key, Object value) {
+		if (value instanceof String) {
+			bundle.putString(key, (String) value);
+		} else if (value instanceof Set) {
+			bundle.putByteArray(key, PreferencesCodec.encodeStringSet((Set<String>) value));
+		} else if (value instanceof String[]) {
+			bundle.putStringArray(key, (String[]) value);
+		} else if (value instanceof Integer) {
+			bundle.putInt(key, (Integer) value);
+		} else if (value instanceof Long) {
+			bundle.putLong(key, (Long) value);
+		} else if (value instanceof Float) {
+			bundle.putFloat(key, (Float) value);
+		} else if (value instanceof Boolean) {
+			bundle.putBoolean(key, (Boolean) value);
+		} else if (value instanceof byte[]) {
+			bundle.putByteArray(key, (byte[]) value);
+		}
+	}
+
+	private static String makeAction(String name) {
+		return String.format("%1$s_%2$s", MultiprocessSharedPreferences.class.getName(), name);
 	}
 
 	@Override
-	public Uri insert(@NonNull Uri uri, ContentValues values) {
-		throw new UnsupportedOperationException("No external insert");
+	public boolean onCreate() {
+		if (checkInitAuthority(getContext())) {
+			mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+			mMethodMatcher = new HashMap<String, Integer>();
+			addMatch(PATH_GET_ALL, GET_ALL);
+			addMatch(PATH_GET_STRING, GET_STRING);
+			addMatch(PATH_GET_INT, GET_INT);
+			addMatch(PATH_GET_LONG, GET_LONG);
+			addMatch(PATH_GET_FLOAT, GET_FLOAT);
+			addMatch(PATH_GET_BOOLEAN, GET_BOOLEAN);
+			addMatch(PATH_CONTAINS, CONTAINS);
+			addMatch(PATH_APPLY, APPLY);
+			addMatch(PATH_COMMIT, COMMIT);
+			addMatch(PATH_REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER);
+			addMatch(PATH_UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER);
+			addMatch(PATH_GET_STRING_SET, GET_STRING_SET);
+			addMatch(PATH_GET_VALUES, GET_VALUES);
+			addMatch(PATH_GET_LISTENER_COUNTS, GET_LISTENER_COUNTS);
+			addMatch(PATH_ATOMIC_OPERATION, ATOMIC_OPERATION);
+			addMatch(PATH_BATCH_COMMIT, BATCH_COMMIT);
+			addMatch(PATH_PRELOAD, PRELOAD);
+			addMatch(PATH_GET_STORAGE_STATS, GET_STORAGE_STATS);
+			addMatch(PATH_BLOB, BLOB);
+			addMatch(PATH_GET_CHANGES_SINCE, GET_CHANGES_SINCE);
+			addMatch(PATH_GET_STRING_INLINE, GET_STRING_INLINE);
+			mGeneration = System.currentTimeMillis();
+			mBatchSequence.set(mGeneration);
+			// 重做日志有同步写入和fsync，不在主线程中执行；不能使用共用的后台线程：其中的任务可能访问本ContentProvider，等待重做完成；
+			final CountDownLatch startupLatch = new CountDownLatch(1);
+			mStartupLatch = startupLatch;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						replayBatchJournals();
+					} finally {
+						startupLatch.countDown();
+					}
+					stampMappedStores();
+					removeBlobFiles(new File(getContext().getDir(MAPPED_STORE_DIR_NAME, Context.MODE_PRIVATE), BLOB_DIR_NAME));
+				}
+			}, TAG + "-startup").start();
+			// ContentProvider所在进程重启后之前的监听注册都已丢失，通知各进程的缓存失效并重新注册；
+			Intent intent = new Intent(ACTION_PROVIDER_CREATED);
+			intent.setPackage(getContext().getPackageName());
+			getContext().sendBroadcast(intent);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * query()使用的Uri路径和call()使用的method名称相同，对应同一个match值；
+	 */
+	private void addMatch(String path, int match) {
+		mUriMatcher.addURI(AUTHORITY, PATH_WILDCARD + path, match);
+		mMethodMatcher.put(path, match);
 	}
 
 	@Override
-	public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
-		throw new UnsupportedOperationException("No external delete");
+	public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		awaitStartup();
+		String name = uri.getPathSegments().get(0);
+		int mode = Integer.parseInt(selectionArgs[0]);
+		String key = selectionArgs[1];
+		int match = mUriMatcher.match(uri);
+		if (match == UriMatcher.NO_MATCH) {
+			if (DEBUG) {
+				throw new IllegalArgumentException("At query, This is Unknown Uri：" + uri + ", AUTHORITY = " + AUTHORITY);
+			}
+			return new BundleCursor(new Bundle());
+		}
+		return new BundleCursor(onQuery(match, name, mode, key, parseDefValue(match, selectionArgs[2], projection)));
 	}
 
-	private SharedPreferences getSystemSharedPreferences(String name, int mode) {
-		return getContext().getSharedPreferences(name, mode);
+	/**
+	 * query()的默认值是字符串，转换回对应的类型；getStringSet()的默认值放在projection中；
+	 */
+	private Object parseDefValue(int match, String defValue, String[] projection) {
+		switch (match) {
+			case GET_STRING:
+			case GET_STRING_INLINE:
+				return defValue;
+			case GET_INT:
+				return Integer.parseInt(defValue);
+			case GET_LONG:
+				return Long.parseLong(defValue);
+			case GET_FLOAT:
+				return Float.parseFloat(defValue);
+			case GET_BOOLEAN:
+				return Boolean.parseBoolean(defValue);
+			case GET_STRING_SET:
+				return projection == null ? null : new HashSet<String>(Arrays.asList(projection));
+			case GET_VALUES:
+			case PRELOAD:
+				return projection;
+			case ATOMIC_OPERATION:
+				return defValue == null ? null : Base64.decode(defValue, Base64.NO_WRAP);
+			case GET_CHANGES_SINCE:
+				return defValue == null ? null : Long.parseLong(defValue);
+			default:
+				return null;
+		}
 	}
 
-	private void checkInitListenersCount() {
-		if (mListenersCount == null) {
-			mListenersCount = new HashMap<String, Integer>();
+	/**
+	 * Android 3.0以上的客户端通过ContentResolver.call()调用，arg为name，参数和返回值都是有类型的Bundle；
+	 */
+//	@Override // Android 3.0
+	public Bundle call(String method, String arg, Bundle extras) {
+		awaitStartup();
+		Integer match = mMethodMatcher == null ? null : mMethodMatcher.get(method);
+		if (match == null || extras == null) {
+			if (DEBUG) {
+				throw new IllegalArgumentException("At call, This is Unknown method：" + method + ", AUTHORITY = " + AUTHORITY);
+			}
+			return null;
+		}
+		int mode = extras.getInt(KEY_MODE);
+		switch (match) {
+			case APPLY:
+			case COMMIT: {
+				HashMap<String, Object> modified = PreferencesCodec.decodeMap(extras.getByteArray(KEY));
+				Bundle bundle = new Bundle();
+				if (!readBlobFiles(modified, extras.getByteArray(KEY_BLOBS))) {
+					bundle.putBoolean(KEY, false);
+					return bundle;
+				}
+				ContentValues values = ReflectionUtil.contentValuesNewInstance(modified);
+				bundle.putBoolean(KEY, onUpdate(match, arg, mode, extras.getBoolean(KEY_CLEAR), values) > 0);
+				return bundle;
+			}
+			case BATCH_COMMIT: {
+				Bundle bundle = new Bundle();
+				bundle.putBoolean(KEY, commitBatch(extras.getByteArray(KEY)));
+				return bundle;
+			}
+			case GET_ALL:
+				return getAllPage(arg, mode, extras.getString(KEY_TOKEN));
+			case REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER:
+			case UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER: {
+				Messenger messenger = extras.getParcelable(KEY_MESSENGER);
+				if (messenger != null) {
+					Bundle bundle = new Bundle();
+					bundle.putBoolean(KEY, setMessengerRegistered(arg, messenger, match == REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER, extras.getBoolean(KEY_VALUES), KeyFilter.readFrom(extras), Binder.getCallingPid()));
+					bundle.putLong(KEY_GENERATION, mGeneration);
+					return bundle;
+				}
+				return onQuery(match, arg, mode, null, null);
+			}
+			default:
+				Object defValue = match == GET_STRING_SET ? PreferencesCodec.decodeStringSet(extras.getByteArray(KEY)) : extras.get(KEY);
+				return onQuery(match, arg, mode, extras.getString(KEY_KEY), defValue);
 		}
 	}
 
-	private void notifyListeners(String name, ArrayList<String> keysModified) {
-		if (keysModified != null && !keysModified.isEmpty()) {
-			Intent intent = new Intent();
-			intent.setAction(makeAction(name));
-			intent.setPackage(getContext().getPackageName());
-			intent.putExtra(KEY_NAME, name);
-			intent.putExtra(KEY, keysModified);
-			getContext().sendBroadcast(intent);
+	/**
+	 * 大的字符串通过管道传递，不写入磁盘：读取时ContentProvider在单独的线程中把值写入管道，客户端从另一端读取；
+	 * 写入时ContentProvider在单独的线程中读取管道并按token暂存在内存中，commit()时按token取回；<br>
+	 * 每次传递使用单独的线程，不占用共用的后台线程，客户端与ContentProvider在同一进程时也不会互相等待；<br>
+	 * 只用于跨进程传递，存储引擎中仍然保存完整的值，不拆分为单独的文件；
+	 */
+	@Override
+	public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+		String token = uri.getQueryParameter(KEY_TOKEN);
+		if (mUriMatcher == null || mUriMatcher.match(uri) != BLOB || token == null) {
+			throw new FileNotFoundException("Unknown Uri: " + uri);
+		}
+		ParcelFileDescriptor[] pipe;
+		if (mode.startsWith("w")) {
+			if (!isValidBlobToken(token)) {
+				throw new FileNotFoundException("Invalid token: " + token);
+			}
+			final BlobUpload upload = putBlobUpload(token);
+			if (upload == null) {
+				throw new FileNotFoundException("Duplicate token: " + token);
+			}
+			pipe = createPipe();
+			final ParcelFileDescriptor source = pipe[0];
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						upload.value = readString(new ParcelFileDescriptor.AutoCloseInputStream(source), BLOB_THRESHOLD * 2);
+					} catch (IOException e) {
+						if (DEBUG) {
+							e.printStackTrace();
+						}
+					} finally {
+						upload.done.countDown();
+					}
+				}
+			}, TAG + "-blob").start();
+			return pipe[1];
+		}
+		BlobSnapshot snapshot;
+		synchronized (this) {
+			snapshot = mBlobSnapshots == null ? null : mBlobSnapshots.remove(token);
+		}
+		if (snapshot == null) { // 已过期；
+			throw new FileNotFoundException("Expired token: " + token);
+		}
+		pipe = createPipe();
+		final ParcelFileDescriptor sink = pipe[1];
+		final String value = snapshot.value;
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(sink);
+				try {
+					Writer writer = new OutputStreamWriter(new BufferedOutputStream(out), CHARSET);
+					writer.write(value);
+					writer.flush();
+				} catch (IOException e) { // 客户端没有读完就关闭了管道；
+					if (DEBUG) {
+						e.printStackTrace();
+					}
+				} finally {
+					closeQuietly(out);
+				}
+			}
+		}, TAG + "-blob").start();
+		return pipe[0];
+	}
+
+	private static ParcelFileDescriptor[] createPipe() throws FileNotFoundException {
+		try {
+			return ParcelFileDescriptor.createPipe();
+		} catch (IOException e) {
+			throw new FileNotFoundException(e.toString());
+		}
+	}
+
+	private String putBlobSnapshot(String value) {
+		synchronized (this) {
+			if (mBlobSnapshots == null) {
+				mBlobSnapshots = new HashMap<String, BlobSnapshot>();
+			}
+			long now = SystemClock.uptimeMillis();
+			Iterator<BlobSnapshot> iterator = mBlobSnapshots.values().iterator();
+			while (iterator.hasNext()) {
+				if (now - iterator.next().time > GET_ALL_SNAPSHOT_TIMEOUT) {
+					iterator.remove();
+				}
+			}
+			String token = String.valueOf(++mBlobSequence);
+			mBlobSnapshots.put(token, new BlobSnapshot(value, now));
+			return token;
+		}
+	}
+
+	/**
+	 * 客户端写入后没有commit()（例如进程被杀）的超过{@link #GET_ALL_SNAPSHOT_TIMEOUT}时丢弃；
+	 * 
+	 * @return token已存在时返回null；
+	 */
+	private BlobUpload putBlobUpload(String token) {
+		synchronized (this) {
+			if (mBlobUploads == null) {
+				mBlobUploads = new HashMap<String, BlobUpload>();
+			}
+			long now = SystemClock.uptimeMillis();
+			Iterator<BlobUpload> iterator = mBlobUploads.values().iterator();
+			while (iterator.hasNext()) {
+				if (now - iterator.next().time > GET_ALL_SNAPSHOT_TIMEOUT) {
+					iterator.remove();
+				}
+			}
+			if (mBlobUploads.containsKey(token)) {
+				return null;
+			}
+			BlobUpload upload = new BlobUpload(now);
+			mBlobUploads.put(token, upload);
+			return upload;
+		}
+	}
+
+	/**
+	 * 把客户端通过openFile()写入的大的字符串放回modified；客户端关闭管道后才提交，这里只等待读取线程读完剩余的数据；
+	 * 
+	 * @param blobs key -> token，为null时没有；
+	 * @return 都读取成功时返回true；
+	 */
+	private boolean readBlobFiles(HashMap<String, Object> modified, byte[] blobs) {
+		if (blobs == null) {
+			return true;
+		}
+		boolean result = true;
+		for (Map.Entry<String, Object> entry : PreferencesCodec.decodeMap(blobs).entrySet()) {
+			BlobUpload upload;
+			synchronized (this) {
+				upload = mBlobUploads == null ? null : mBlobUploads.remove(entry.getValue());
+			}
+			if (upload == null || !result) { // 已过期；
+				result = false;
+				continue;
+			}
+			try {
+				if (upload.done.await(GET_ALL_SNAPSHOT_TIMEOUT, TimeUnit.MILLISECONDS) && upload.value != null) {
+					modified.put(entry.getKey(), upload.value);
+				} else {
+					result = false;
+				}
+			} catch (InterruptedException e) {
+				if (DEBUG) {
+					e.printStackTrace();
+				}
+				result = false;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return token是否为客户端生成的UUID；
+	 */
+	private static boolean isValidBlobToken(String token) {
+		for (int i = 0; i < token.length(); i++) {
+			char c = token.charAt(i);
+			if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F' || c == '-')) {
+				return false;
+			}
+		}
+		return token.length() > 0;
+	}
+
+	/**
+	 * 之前的版本把客户端写入的大的字符串暂存在这个目录中，进程被杀时会留下临时文件，启动时删除；
+	 */
+	private static void removeBlobFiles(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * 读取全部内容后关闭in；
+	 */
+	private static String readString(InputStream in, int sizeHint) throws IOException {
+		try {
+			Reader reader = new InputStreamReader(in, CHARSET);
+			StringBuilder sb = new StringBuilder(Math.max(sizeHint, 16));
+			char[] buffer = new char[8192];
+			int count;
+			while ((count = reader.read(buffer)) != -1) {
+				sb.append(buffer, 0, count);
+			}
+			return sb.toString();
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static void closeQuietly(java.io.Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * call()方式的getAll()：结果超过{@link #GET_ALL_PAGE_SIZE}时分页返回，剩余部分保存为快照，客户端凭KEY_TOKEN继续读取；
+	 * 避免整个Map放在一个Bundle中超过Binder的1MB限制（TransactionTooLargeException）；
+	 */
+	private Bundle getAllPage(String name, int mode, String token) {
+		Bundle bundle = new Bundle();
+		GetAllSnapshot snapshot;
+		if (token == null) {
+			// 先取版本号再取数据，保证数据至少包含该版本号之前的修改；
+			bundle.putLong(KEY_VERSION, getVersion(name));
+			bundle.putLong(KEY_GENERATION, mGeneration);
+			snapshot = new GetAllSnapshot(new HashMap<String, Object>(getStorageEngine(name, mode).getAll()));
+		} else {
+			synchronized (this) {
+				snapshot = mGetAllSnapshots == null ? null : mGetAllSnapshots.remove(token);
+			}
+			if (snapshot == null) { // 快照已过期，客户端需要重新读取；
+				return bundle;
+			}
+		}
+		bundle.putByteArray(KEY, PreferencesCodec.encodeMap(snapshot.iterator, GET_ALL_PAGE_SIZE));
+		if (snapshot.iterator.hasNext()) {
+			synchronized (this) {
+				if (mGetAllSnapshots == null) {
+					mGetAllSnapshots = new HashMap<String, GetAllSnapshot>();
+				}
+				removeExpiredGetAllSnapshots();
+				if (token == null) {
+					token = name + "/" + (++mGetAllSnapshotSequence);
+				}
+				snapshot.lastAccess = SystemClock.uptimeMillis();
+				mGetAllSnapshots.put(token, snapshot);
+			}
+			bundle.putString(KEY_TOKEN, token);
+		}
+		return bundle;
+	}
+
+	private void removeExpiredGetAllSnapshots() {
+		long now = SystemClock.uptimeMillis();
+		Iterator<GetAllSnapshot> iterator = mGetAllSnapshots.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().lastAccess > GET_ALL_SNAPSHOT_TIMEOUT) {
+				iterator.remove();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Bundle onQuery(int match, String name, int mode, String key, Object defValue) {
+		Bundle bundle = new Bundle();
+		switch (match) {
+			case GET_ALL:
+				// 先取版本号再取数据，保证数据至少包含该版本号之前的修改；
+				bundle.putLong(KEY_VERSION, getVersion(name));
+				bundle.putLong(KEY_GENERATION, mGeneration);
+				bundle.putByteArray(KEY, PreferencesCodec.encodeMap(getStorageEngine(name, mode).getAll()));
+				break;
+			case GET_VALUES: {
+				// 只返回存在的key，默认值由客户端填充，不需要传递；
+				StorageEngine engine = getStorageEngine(name, mode);
+				HashMap<String, Object> values = new HashMap<String, Object>();
+				if (defValue != null) {
+					for (String k : (String[]) defValue) {
+						Object v = engine.get(k);
+						if (v != null) {
+							values.put(k, v);
+						}
+					}
+				}
+				bundle.putByteArray(KEY, PreferencesCodec.encodeMap(values));
+			}
+				break;
+			case GET_STRING:
+			case GET_STRING_INLINE: {
+				String v = getStorageEngine(name, mode).getString(key, (String) defValue);
+				if (match == GET_STRING && v != null && v != defValue && v.length() > BLOB_THRESHOLD) { // 客户端再通过openFile()读取；
+					bundle.putString(KEY_BLOB, putBlobSnapshot(v));
+				} else {
+					bundle.putString(KEY, v);
+				}
+			}
+				break;
+			case GET_INT:
+				bundle.putInt(KEY, getStorageEngine(name, mode).getInt(key, (Integer) defValue));
+				break;
+			case GET_LONG:
+				bundle.putLong(KEY, getStorageEngine(name, mode).getLong(key, (Long) defValue));
+				break;
+			case GET_FLOAT:
+				bundle.putFloat(KEY, getStorageEngine(name, mode).getFloat(key, (Float) defValue));
+				break;
+			case GET_BOOLEAN:
+				bundle.putBoolean(KEY, getStorageEngine(name, mode).getBoolean(key, (Boolean) defValue));
+				break;
+			case CONTAINS:
+				bundle.putBoolean(KEY, getStorageEngine(name, mode).contains(key));
+				break;
+			case REGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER:
+				setBroadcastListenerRegistered(name, Binder.getCallingPid(), true);
+				bundle.putBoolean(KEY, true);
+				bundle.putLong(KEY_GENERATION, mGeneration);
+				break;
+			case UNREGISTER_ON_SHARED_PREFERENCE_CHANGE_LISTENER:
+				setBroadcastListenerRegistered(name, Binder.getCallingPid(), false);
+				bundle.putBoolean(KEY, true);
+				break;
+			case GET_LISTENER_COUNTS: {
+				removeDeadBroadcastListeners(true);
+				HashMap<Integer, Integer> counts = getListenerCounts(name);
+				int[] pids = new int[counts.size()];
+				int[] values = new int[counts.size()];
+				int i = 0;
+				for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+					pids[i] = entry.getKey();
+					values[i] = entry.getValue();
+					i++;
+				}
+				bundle.putIntArray(KEY_KEYS, pids);
+				bundle.putIntArray(KEY, values);
+			}
+				break;
+			case GET_STORAGE_STATS: {
+				ArrayList<StorageEngine> engines;
+				long[] stats;
+				synchronized (mStorageEngines) {
+					engines = new ArrayList<StorageEngine>(mLoadedEngines.values());
+					stats = new long[] { mStorageHits, mStorageMisses, mStorageEvictions, engines.size(), 0, sStorageMemoryBudget };
+				}
+				stats[4] = getMemorySize(engines);
+				bundle.putLongArray(KEY, stats);
+			}
+				break;
+			case PRELOAD: {
+				// key为需要返回数据的name的数量，其余的name只加载；
+				String[] names = (String[]) defValue;
+				int valueCount = key == null ? 0 : Integer.parseInt(key);
+				Bundle values = new Bundle();
+				Bundle versions = new Bundle();
+				int size = 0;
+				for (int i = 0; names != null && i < names.length; i++) {
+					long version = getVersion(names[i]); // 先取版本号再取数据；
+					StorageEngine engine = getStorageEngine(names[i], mode);
+					if (i < valueCount && size < GET_ALL_PAGE_SIZE) { // 超出单次传输上限的留给客户端第一次读取时再取；
+						byte[] data = PreferencesCodec.encodeMap(engine.getAll());
+						if (size + data.length <= GET_ALL_PAGE_SIZE) {
+							values.putByteArray(names[i], data);
+							versions.putLong(names[i], version);
+							size += data.length;
+						}
+					}
+				}
+				bundle.putBundle(KEY, values);
+				bundle.putBundle(KEY_VERSION, versions);
+				bundle.putLong(KEY_GENERATION, mGeneration);
+			}
+				break;
+			case GET_CHANGES_SINCE:
+				// key为客户端上一次同步时的generation；
+				getChangesSince(name, key == null ? 0 : Long.parseLong(key), defValue instanceof Long ? (Long) defValue : -1, bundle);
+				break;
+			case ATOMIC_OPERATION: {
+				AtomicOperation operation = AtomicOperation.decode((byte[]) defValue);
+				if (operation == null) {
+					break;
+				}
+				UpdateRequest request = new UpdateRequest(operation, key);
+				if (groupCommit(name, mode, request) > 0) {
+					bundle.putByteArray(KEY, AtomicOperation.encodeResult(operation.result));
+				} else if (operation.error != null) {
+					bundle.putString(KEY_ERROR, operation.error);
+				}
+			}
+				break;
+			case GET_STRING_SET: {
+				if (Build.VERSION.SDK_INT >= 11) { // Android 3.0
+					bundle.putByteArray(KEY, PreferencesCodec.encodeStringSet(getStorageEngine(name, mode).getStringSet(key, (Set<String>) defValue)));
+				}
+			}
+				break;
+			default:
+				if (DEBUG) {
+					throw new IllegalArgumentException("At query, This is Unknown match：" + match + ", AUTHORITY = " + AUTHORITY);
+				}
+		}
+		return bundle;
+	}
+
+	@Override
+	public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		awaitStartup();
+		String name = uri.getPathSegments().get(0);
+		int mode = Integer.parseInt(selectionArgs[0]);
+		int match = mUriMatcher.match(uri);
+		if (match == UriMatcher.NO_MATCH) {
+			if (DEBUG) {
+				throw new IllegalArgumentException("At update, This is Unknown Uri：" + uri + ", AUTHORITY = " + AUTHORITY);
+			}
+			return 0;
+		}
+		return onUpdate(match, name, mode, Boolean.parseBoolean(selectionArgs[1]), values);
+	}
+
+	private int onUpdate(int match, String name, int mode, boolean clear, ContentValues values) {
+		int result = 0;
+		switch (match) {
+			case APPLY:
+			case COMMIT:
+				HashMap<String, Object> modified = new HashMap<String, Object>();
+				for (Map.Entry<String, Object> entry : values.valueSet()) {
+					Object v = entry.getValue();
+					// Android 5.L_preview : "this" is the magic value for a removal mutation. In addition,
+					// setting a value to "null" for a given key is specified to be
+					// equivalent to calling remove on that key.
+					modified.put(entry.getKey(), v instanceof EditorImpl ? null : v);
+				}
+				values.clear();
+				result = groupCommit(name, mode, new UpdateRequest(match == COMMIT, clear, modified));
+				break;
+			case BATCH_COMMIT:
+				result = commitBatch(values.getAsByteArray(KEY)) ? 1 : 0;
+				break;
+			default:
+				if (DEBUG) {
+					throw new IllegalArgumentException("At update, This is Unknown match：" + match + ", AUTHORITY = " + AUTHORITY);
+				}
+		}
+		return result;
+	}
+
+	/**
+	 * 先写重做日志再逐个name写入，全部写完后删除日志；
+	 * 
+	 * @return 是否全部写入成功；返回false时没有写入的name留在日志中，由ContentProvider重试或者下次启动时重做；
+	 */
+	private boolean commitBatch(byte[] data) {
+		List<BatchJournal.Entry> entries;
+		try {
+			entries = BatchJournal.decode(data);
+		} catch (IllegalArgumentException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+		File journal;
+		try {
+			journal = BatchJournal.write(getBatchJournalDir(), mBatchSequence.incrementAndGet(), data);
+		} catch (IOException e) { // 没有日志就不能保证崩溃后补写，直接返回失败；
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+		return applyBatch(journal, entries, 0);
+	}
+
+	/**
+	 * 按顺序逐个name写入，每写入一个name就把还没有写入的修改重写到日志中，全部写入后删除日志；
+	 * 崩溃后重做时只补写日志中剩余的name，不会用旧的修改覆盖期间其他客户端的写入；<br>
+	 * 有写入失败的name时日志中只剩下它们，在后台按加倍的间隔重试{@link #BATCH_MAX_RETRIES}次，仍失败时留到下次启动时重做；
+	 * 
+	 * @param retries 已经重试的次数；
+	 * @return 是否全部写入；
+	 */
+	private boolean applyBatch(final File journal, List<BatchJournal.Entry> entries, final int retries) {
+		final List<BatchJournal.Entry> failed = new ArrayList<BatchJournal.Entry>();
+		for (int i = 0; i < entries.size(); i++) {
+			BatchJournal.Entry entry = entries.get(i);
+			if (groupCommit(entry.name, entry.mode, new UpdateRequest(true, entry.clear, entry.modified)) <= 0) {
+				failed.add(entry);
+			} else if (!failed.isEmpty() || i < entries.size() - 1) { // 日志中只保留还没有写入的；
+				List<BatchJournal.Entry> remaining = new ArrayList<BatchJournal.Entry>(failed);
+				remaining.addAll(entries.subList(i + 1, entries.size()));
+				try {
+					BatchJournal.rewrite(journal, BatchJournal.encode(remaining));
+				} catch (IOException e) { // 原日志仍然完整，只是崩溃后会多重写已写入的name；
+					if (DEBUG) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		if (failed.isEmpty()) {
+			journal.delete();
+			return true;
+		}
+		if (DEBUG) {
+			Log.d(TAG, "applyBatch.failed = " + failed.size() + "/" + entries.size() + ", retries = " + retries);
+		}
+		if (retries < BATCH_MAX_RETRIES) {
+			getBackgroundHandler().postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					applyBatch(journal, failed, retries + 1);
+				}
+			}, BATCH_RETRY_INTERVAL << retries);
+		}
+		return false;
+	}
+
+	/**
+	 * ContentProvider所在进程在批量写入中途崩溃时，启动后在后台线程补写，完成前其他请求等待（{@link #awaitStartup()}）；
+	 */
+	private void replayBatchJournals() {
+		for (File journal : BatchJournal.list(getBatchJournalDir())) {
+			byte[] data = BatchJournal.read(journal);
+			List<BatchJournal.Entry> entries = null;
+			if (data != null) { // 写日志时崩溃的批量修改还没有开始写入，直接丢弃；
+				try {
+					entries = BatchJournal.decode(data);
+				} catch (IllegalArgumentException e) {
+					if (DEBUG) {
+						e.printStackTrace();
+					}
+				}
+			}
+			if (entries != null) {
+				applyBatch(journal, entries, 0);
+			} else {
+				journal.delete();
+			}
+		}
+	}
+
+	/**
+	 * 等待启动时的重做完成，保证请求看到的是补写之后的数据；
+	 */
+	private void awaitStartup() {
+		CountDownLatch startupLatch = mStartupLatch;
+		if (startupLatch == null) {
+			return;
+		}
+		try {
+			startupLatch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private File getBatchJournalDir() {
+		return new File(getContext().getDir(MAPPED_STORE_DIR_NAME, Context.MODE_PRIVATE), BATCH_JOURNAL_DIR_NAME);
+	}
+
+	/**
+	 * 同一个name的写入排队执行：第一个到达的线程作为leader，等待{@link #sGroupCommitWindow}后（以及写入过程中）到达的写入合并为一次存储引擎的写入；<br>
+	 * 其他线程等待leader写完后直接拿到结果，每个写入仍按到达顺序单独计算修改的key、单独递增版本号并通知；
+	 */
+	private int groupCommit(String name, int mode, UpdateRequest request) {
+		GroupCommit group;
+		synchronized (mGroupCommits) {
+			group = mGroupCommits.get(name);
+			if (group == null) {
+				group = new GroupCommit();
+				mGroupCommits.put(name, group);
+			}
+		}
+		ArrayList<UpdateRequest> batch;
+		boolean interrupted = false;
+		synchronized (group) {
+			group.pending.add(request);
+			while (group.writing && !request.done) {
+				try {
+					group.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (request.done) {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+				return request.result;
+			}
+			group.writing = true;
+			long window = sGroupCommitWindow;
+			if (window > 0) {
+				long deadline = SystemClock.uptimeMillis() + window;
+				long now;
+				while ((now = SystemClock.uptimeMillis()) < deadline) {
+					try {
+						group.wait(deadline - now);
+					} catch (InterruptedException e) {
+						interrupted = true;
+						break;
+					}
+				}
+			}
+			batch = new ArrayList<UpdateRequest>(group.pending);
+			group.pending.clear();
+		}
+		try {
+			writeUpdates(name, getStorageEngine(name, mode), batch);
+		} finally {
+			synchronized (group) {
+				for (UpdateRequest r : batch) {
+					r.done = true;
+				}
+				group.writing = false;
+				group.notifyAll();
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return request.result;
+	}
+
+	/**
+	 * 按顺序计算每个写入修改的key（基于之前的写入合并后的数据），合并为一次写入，成功后按顺序通知；
+	 */
+	private void writeUpdates(String name, StorageEngine engine, List<UpdateRequest> batch) {
+		KeyFilter watchedKeys = getWatchedKeys(name);
+		boolean sync = false;
+		boolean clear = false;
+		HashMap<String, Object> modified = new HashMap<String, Object>(); // 合并后的修改；
+		ArrayList<UpdateRequest> written = new ArrayList<UpdateRequest>();
+		for (UpdateRequest request : batch) {
+			if (request.operation != null && !request.operation.apply(request.key, getValue(engine, clear, modified, request.key), request.modified)) {
+				request.result = request.operation.error == null ? 1 : 0; // 不需要写入；
+				continue;
+			}
+			boolean hasListeners = watchedKeys == null || (request.clear ? hasMessengers(name) : watchedKeys.matchesAny(request.modified.keySet()));
+			boolean unchecked = false; // 是否有没人监听、没有比较过的key；
+			Set<String> keys = null; // 只有clear()时才需要原有的全部key；
+			if (hasListeners) {
+				request.keysModified = new ArrayList<String>();
+				if (request.clear) {
+					keys = getKeys(engine, clear, modified);
+					request.keysModified.addAll(keys);
+				}
+				for (Map.Entry<String, Object> entry : request.modified.entrySet()) {
+					String k = entry.getKey();
+					Object v = entry.getValue();
+					if (keys != null) { // clear()时原有的key都已经在keysModified中；
+						if (v != null && !keys.contains(k)) {
+							request.keysModified.add(k);
+						}
+					} else if (watchedKeys != null && !watchedKeys.matches(k)) {
+						unchecked = true;
+					} else if (isValueModified(engine, clear, modified, k, v)) {
+						request.keysModified.add(k);
+					}
+				}
+				if (!unchecked && request.keysModified.isEmpty()) {
+					request.result = 1;
+					continue;
+				}
+			}
+			sync |= request.sync;
+			if (request.clear) {
+				clear = true;
+				modified.clear();
+			}
+			modified.putAll(request.modified);
+			written.add(request);
+		}
+		if (written.isEmpty()) {
+			return;
+		}
+		boolean success = engine.write(clear, modified, sync);
+		long[] versions = new long[written.size()];
+		for (int i = 0; i < written.size(); i++) {
+			written.get(i).result = success ? 1 : 0;
+			if (success) {
+				versions[i] = increaseVersion(name, written.get(i));
+			}
+		}
+		if (!success) {
+			return;
+		}
+		publishMappedStore(name, engine); // 先发布，监听回调中从内存映射读到的是新值；
+		scheduleTrimStorageEngines();
+		for (int i = 0; i < written.size(); i++) {
+			UpdateRequest request = written.get(i);
+			// APPLY: Okay to notify the listeners before it's hit disk
+			// because the listeners should always get the same
+			// SharedPreferences instance back, which has the
+			// changes reflected in memory.
+			notifyListeners(name, request.keysModified, getValuesModified(name, request.keysModified, request.modified), versions[i]);
+		}
+		if (DEBUG && batch.size() > 1) {
+			Log.d(TAG, "groupCommit.name = " + name + ", batch = " + batch.size() + ", written = " + written.size());
+		}
+	}
+
+	/**
+	 * @return 存储引擎中key的值，加上本组中之前的写入（cleared为之前是否有clear()）之后的结果；
+	 */
+	private static Object getValue(StorageEngine engine, boolean cleared, Map<String, Object> modified, String key) {
+		if (modified.containsKey(key)) {
+			return modified.get(key);
+		} else if (cleared) {
+			return null;
+		}
+		return engine.get(key);
+	}
+
+	/**
+	 * @return 存储引擎中的key，加上本组中之前的写入（cleared为之前是否有clear()）之后的结果；
+	 */
+	private static Set<String> getKeys(StorageEngine engine, boolean cleared, Map<String, Object> modified) {
+		HashSet<String> keys = cleared ? new HashSet<String>() : new HashSet<String>(engine.getAll().keySet());
+		for (Map.Entry<String, Object> entry : modified.entrySet()) {
+			if (entry.getValue() == null) {
+				keys.remove(entry.getKey());
+			} else {
+				keys.add(entry.getKey());
+			}
+		}
+		return keys;
+	}
+
+	private static boolean isValueModified(StorageEngine engine, boolean cleared, Map<String, Object> modified, String key, Object v) {
+		if (modified.containsKey(key)) {
+			Object old = modified.get(key);
+			return old == null ? v != null : !old.equals(v);
+		} else if (cleared) {
+			return v != null;
+		}
+		return isValueModified(engine, key, v);
+	}
+
+	@Override
+	public String getType(@NonNull Uri uri) {
+		throw new UnsupportedOperationException("No external call");
+	}
+
+	@Override
+	public Uri insert(@NonNull Uri uri, ContentValues values) {
+		throw new UnsupportedOperationException("No external insert");
+	}
+
+	@Override
+	public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException("No external delete");
+	}
+
+	/**
+	 * 按key读取原值比较；
+	 * 
+	 * @param v 新的值，null表示删除；
+	 */
+	private static boolean isValueModified(StorageEngine engine, String key, Object v) {
+		Object old = engine.get(key);
+		return old == null ? v != null : !old.equals(v);
+	}
+
+	private StorageEngine getStorageEngine(String name, int mode) {
+		synchronized (mStorageEngines) {
+			StorageEngine engine = mStorageEngines.get(name);
+			if (engine == null) {
+				StorageEngine.Factory factory;
+				synchronized (sStorageEngineFactories) {
+					factory = sStorageEngineFactories.get(name);
+					if (factory == null) {
+						factory = sStorageEngineFactories.get(null);
+					}
+				}
+				if (factory == null && sStorageMemoryBudget > 0) { // 系统SharedPreferences无法卸载；
+					factory = JournalStorageEngine.FACTORY;
+				}
+				engine = factory == null ? new SystemStorageEngine(getContext().getSharedPreferences(name, mode)) : factory.create(getContext(), name, mode);
+				mStorageEngines.put(name, engine);
+				if (isMappedStoreEnabled(name)) {
+					publishMappedStore(name, engine);
+				} else {
+					invalidateMappedStore(name);
+				}
+			}
+			if (mLoadedEngines.get(name) != null) {
+				mStorageHits++;
+			} else { // 第一次使用或者已被卸载，由存储引擎重新加载；
+				mStorageMisses++;
+				mLoadedEngines.put(name, engine);
+				scheduleTrimStorageEngines();
+			}
+			return engine;
+		}
+	}
+
+	/**
+	 * 新加载和写入都会增加内存，在后台线程检查，不阻塞当前请求；
+	 */
+	private void scheduleTrimStorageEngines() {
+		if (sStorageMemoryBudget <= 0) {
+			return;
+		}
+		synchronized (mStorageEngines) {
+			if (mStorageTrimScheduled) {
+				return;
+			}
+			mStorageTrimScheduled = true;
+		}
+		getBackgroundHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				trimStorageEngines();
+			}
+		});
+	}
+
+	/**
+	 * 超出内存预算时从最久没有使用的开始卸载；获取大小和卸载时不持有mStorageEngines，避免等待其他name正在进行的写入；
+	 */
+	private void trimStorageEngines() {
+		ArrayList<String> names;
+		ArrayList<StorageEngine> engines;
+		synchronized (mStorageEngines) {
+			mStorageTrimScheduled = false;
+			names = new ArrayList<String>(mLoadedEngines.keySet());
+			engines = new ArrayList<StorageEngine>(mLoadedEngines.values());
+		}
+		long budget = sStorageMemoryBudget;
+		long total = getMemorySize(engines);
+		ArrayList<String> evicted = new ArrayList<String>();
+		for (int i = 0; i < names.size() && budget > 0 && total > budget; i++) {
+			StorageEngine engine = engines.get(i);
+			if (engine instanceof StorageEngine.Unloadable) {
+				StorageEngine.Unloadable unloadable = (StorageEngine.Unloadable) engine;
+				long size = unloadable.getMemorySize();
+				if (unloadable.unload()) {
+					total -= size;
+					evicted.add(names.get(i));
+				}
+			}
+		}
+		synchronized (mStorageEngines) {
+			for (String name : evicted) {
+				mLoadedEngines.remove(name);
+			}
+			mStorageEvictions += evicted.size();
+		}
+		if (DEBUG && !evicted.isEmpty()) {
+			Log.d(TAG, "trimStorageEngines.evicted = " + evicted + ", memorySize = " + total + ", budget = " + budget);
+		}
+	}
+
+	private static long getMemorySize(Collection<StorageEngine> engines) {
+		long total = 0;
+		for (StorageEngine engine : engines) {
+			if (engine instanceof StorageEngine.Unloadable) {
+				total += ((StorageEngine.Unloadable) engine).getMemorySize();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 把name的全部数据写入内存映射文件；没有开启时不处理；
+	 */
+	private void publishMappedStore(String name, StorageEngine engine) {
+		MappedPreferencesStore store = getMappedStoreForWrite(name);
+		if (store == null) {
+			return;
+		}
+		try {
+			store.write(PreferencesCodec.encodeMap(engine.getAll()), getVersion(name), mGeneration);
+		} catch (IOException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return name对应的内存映射文件，没有开启或者无法打开时返回null；
+	 */
+	private MappedPreferencesStore getMappedStoreForWrite(String name) {
+		synchronized (mMappedStores) {
+			if (!isMappedStoreEnabled(name)) {
+				return null;
+			}
+			MappedPreferencesStore store = mMappedStores.get(name);
+			if (store == null) {
+				try {
+					store = MappedPreferencesStore.openForWrite(getMappedStoreFile(getContext(), name));
+				} catch (IOException e) {
+					if (DEBUG) {
+						e.printStackTrace();
+					}
+					return null;
+				}
+				mMappedStores.put(name, store);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * ContentProvider启动时处理之前发布的内存映射文件：开启了的name在文件头中标记本次的generation（上次的ContentProvider退出后没有其他写入方，数据仍是最新的），
+	 * 没有开启的标记为不再更新并删除；最后写入{@link #MAPPED_STORE_GENERATION_FILE_NAME}；<br>
+	 * 读取方只使用generation与它相同的文件，标记失败、没有开启或者本次启动还没有处理完的文件都不会被使用；
+	 */
+	private void stampMappedStores() {
+		File dir = getContext().getDir(MAPPED_STORE_DIR_NAME, Context.MODE_PRIVATE);
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			String fileName = files[i].getName();
+			if (!fileName.endsWith(MAPPED_STORE_SUFFIX)) {
+				continue;
+			}
+			String name = fileName.substring(0, fileName.length() - MAPPED_STORE_SUFFIX.length());
+			MappedPreferencesStore store = getMappedStoreForWrite(name);
+			if (store != null) {
+				store.stamp(mGeneration);
+			} else {
+				invalidateMappedStore(name);
+			}
+		}
+		File file = new File(dir, MAPPED_STORE_GENERATION_FILE_NAME);
+		File tmp = new File(dir, MAPPED_STORE_GENERATION_FILE_NAME + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			DataOutputStream dos = new DataOutputStream(out);
+			dos.writeLong(mGeneration);
+			dos.flush();
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				throw new IOException("rename failed: " + tmp);
+			}
+		} catch (IOException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * 没有开启内存映射读取时，删除之前发布的文件，并通知已经映射了这个文件的进程不要再使用；
+	 */
+	private void invalidateMappedStore(String name) {
+		File file = getMappedStoreFile(getContext(), name);
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			MappedPreferencesStore store = MappedPreferencesStore.openForWrite(file);
+			store.invalidate();
+			store.close();
+		} catch (IOException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * 广播方式（Android 3.0以下）的监听按客户端进程计数，同一个进程可以注册多次；
+	 */
+	private void setBroadcastListenerRegistered(String name, int pid, boolean registered) {
+		synchronized (this) {
+			if (mBroadcastListeners == null) {
+				mBroadcastListeners = new HashMap<String, HashMap<Integer, Integer>>();
+			}
+			HashMap<Integer, Integer> counts = mBroadcastListeners.get(name);
+			if (registered) {
+				if (counts == null) {
+					counts = new HashMap<Integer, Integer>();
+					mBroadcastListeners.put(name, counts);
+				}
+				Integer count = counts.get(pid);
+				counts.put(pid, count == null ? 1 : count + 1);
+			} else if (counts != null) {
+				Integer count = counts.get(pid);
+				if (count != null && count > 1) {
+					counts.put(pid, count - 1);
+				} else {
+					counts.remove(pid);
+					if (counts.isEmpty()) {
+						mBroadcastListeners.remove(name);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 广播方式的监听没有Binder可以linkToDeath，按pid检查客户端进程是否还存活，清理崩溃或被杀的进程留下的注册；<br>
+	 * 需要跨进程查询ActivityManager，除非force，否则间隔{@link #BROADCAST_LISTENERS_CHECK_INTERVAL}才检查一次；
+	 */
+	private void removeDeadBroadcastListeners(boolean force) {
+		long now = SystemClock.uptimeMillis();
+		synchronized (this) {
+			if (mBroadcastListeners == null || mBroadcastListeners.isEmpty()) {
+				return;
+			}
+			if (!force && mBroadcastListenersCheckTime != 0 && now - mBroadcastListenersCheckTime < BROADCAST_LISTENERS_CHECK_INTERVAL) {
+				return;
+			}
+			mBroadcastListenersCheckTime = now;
+		}
+		HashSet<Integer> pids = new HashSet<Integer>();
+		try {
+			ActivityManager activityManager = (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+			List<ActivityManager.RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+			if (processes == null) {
+				return;
+			}
+			for (ActivityManager.RunningAppProcessInfo process : processes) {
+				pids.add(process.pid);
+			}
+		} catch (RuntimeException e) {
+			if (DEBUG) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		synchronized (this) {
+			Iterator<HashMap<Integer, Integer>> iterator = mBroadcastListeners.values().iterator();
+			while (iterator.hasNext()) {
+				HashMap<Integer, Integer> counts = iterator.next();
+				counts.keySet().retainAll(pids);
+				if (counts.isEmpty()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return name对应的存活的监听，客户端进程pid -> 注册数（Messenger方式每个进程只有一个注册）；
+	 */
+	private HashMap<Integer, Integer> getListenerCounts(String name) {
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		synchronized (this) {
+			HashMap<Integer, Integer> broadcastCounts = mBroadcastListeners == null ? null : mBroadcastListeners.get(name);
+			if (broadcastCounts != null) {
+				counts.putAll(broadcastCounts);
+			}
+			HashMap<IBinder, MessengerRecord> records = mMessengers == null ? null : mMessengers.get(name);
+			if (records != null) {
+				for (MessengerRecord record : records.values()) {
+					Integer count = counts.get(record.pid);
+					counts.put(record.pid, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		return counts;
+	}
+
+	private long getVersion(String name) {
+		synchronized (this) {
+			Long version = mVersions == null ? null : mVersions.get(name);
+			return version == null ? 0 : version;
+		}
+	}
+
+	/**
+	 * 每次成功写入后递增name对应的版本号，随变更广播一起发出，客户端缓存据此判断自己的数据是否已过期；<br>
+	 * 版本号同时作为{@link #getChangesSince(long, long)}的序号，与修改一起记录到name的修改记录中；
+	 */
+	private long increaseVersion(String name, UpdateRequest request) {
+		synchronized (this) {
+			if (mVersions == null) {
+				mVersions = new HashMap<String, Long>();
+				mChangeLogs = new HashMap<String, ChangeLog>();
+			}
+			long version = getVersion(name) + 1;
+			mVersions.put(name, version);
+			ChangeLog log = mChangeLogs.get(name);
+			if (log == null) {
+				log = new ChangeLog(version - 1, CHANGE_LOG_MAX_SIZE, BLOB_THRESHOLD);
+				mChangeLogs.put(name, log);
+			}
+			log.add(version, request.clear, request.modified);
+			return version;
+		}
+	}
+
+	/**
+	 * 在bundle中填入name在sequence之后的修改：KEY_CLEAR为其中是否有清空，KEY为合并后的修改（删除的key对应null）；<br>
+	 * 不是本次启动的序号、早于保留的修改记录或者合并后超过{@link #GET_ALL_PAGE_SIZE}时不填入KEY，由客户端读取全部数据；<br>
+	 * KEY_VERSION和KEY_GENERATION总是填入，与修改在同一个锁内读取；
+	 */
+	private void getChangesSince(String name, long generation, long sequence, Bundle bundle) {
+		ChangeLog.Changes changes;
+		synchronized (this) {
+			long version = getVersion(name);
+			bundle.putLong(KEY_VERSION, version);
+			bundle.putLong(KEY_GENERATION, mGeneration);
+			changes = ChangeLog.getChangesSince(mChangeLogs == null ? null : mChangeLogs.get(name), mGeneration, version, generation, sequence);
+		}
+		if (changes == null) {
+			return;
+		}
+		byte[] data = PreferencesCodec.encodeMap(changes.modified);
+		if (data.length <= GET_ALL_PAGE_SIZE) {
+			bundle.putBoolean(KEY_CLEAR, changes.clear);
+			bundle.putByteArray(KEY, data);
+		}
+	}
+
+	/**
+	 * @return 修改的key对应的新值，被删除（包括clear）的key对应null；没有客户端需要时返回null；
+	 */
+	private HashMap<String, Object> getValuesModified(String name, ArrayList<String> keysModified, Map<String, Object> modified) {
+		if (keysModified == null || keysModified.isEmpty() || !isNotifyValuesRequested(name)) {
+			return null;
+		}
+		HashMap<String, Object> valuesModified = new HashMap<String, Object>();
+		for (String k : keysModified) {
+			valuesModified.put(k, modified.get(k));
+		}
+		return valuesModified;
+	}
+
+	private boolean hasBroadcastListeners(String name) {
+		synchronized (this) {
+			if (mBroadcastListeners == null || !mBroadcastListeners.containsKey(name)) {
+				return false;
+			}
+		}
+		removeDeadBroadcastListeners(false);
+		synchronized (this) {
+			return mBroadcastListeners.containsKey(name);
+		}
+	}
+
+	/**
+	 * @return 所有监听的key范围之和；有广播方式的监听或者监听全部key的Messenger时返回null；
+	 */
+	private KeyFilter getWatchedKeys(String name) {
+		if (hasBroadcastListeners(name)) {
+			return null;
+		}
+		KeyFilter watchedKeys = new KeyFilter(null, null);
+		synchronized (this) {
+			HashMap<IBinder, MessengerRecord> records = mMessengers == null ? null : mMessengers.get(name);
+			if (records != null) {
+				for (MessengerRecord record : records.values()) {
+					if (record.filter == null) {
+						return null;
+					}
+					watchedKeys.addAll(record.filter);
+				}
+			}
+		}
+		return watchedKeys;
+	}
+
+	private boolean hasMessengers(String name) {
+		synchronized (this) {
+			return mMessengers != null && mMessengers.containsKey(name);
+		}
+	}
+
+	/**
+	 * 注册或注销客户端的Messenger，同一个Binder只注册一次，再次注册时更新监听范围；客户端进程死亡时通过linkToDeath自动注销；
+	 */
+	private boolean setMessengerRegistered(final String name, Messenger messenger, boolean registered, boolean values, KeyFilter filter, int pid) {
+		final IBinder binder = messenger.getBinder();
+		synchronized (this) {
+			if (mMessengers == null) {
+				mMessengers = new HashMap<String, HashMap<IBinder, MessengerRecord>>();
+			}
+			HashMap<IBinder, MessengerRecord> records = mMessengers.get(name);
+			if (registered) {
+				MessengerRecord record = records == null ? null : records.get(binder);
+				if (record != null) {
+					records.put(binder, new MessengerRecord(messenger, record.recipient, values, filter, pid));
+					return true;
+				}
+				IBinder.DeathRecipient recipient = new IBinder.DeathRecipient() {
+					@Override
+					public void binderDied() {
+						removeMessenger(name, binder);
+					}
+				};
+				try {
+					binder.linkToDeath(recipient, 0);
+				} catch (RemoteException e) { // 客户端进程已经死亡；
+					if (DEBUG) {
+						e.printStackTrace();
+					}
+					return false;
+				}
+				if (records == null) {
+					records = new HashMap<IBinder, MessengerRecord>();
+					mMessengers.put(name, records);
+				}
+				records.put(binder, new MessengerRecord(messenger, recipient, values, filter, pid));
+			} else {
+				MessengerRecord record = removeMessenger(name, binder);
+				if (record != null) {
+					binder.unlinkToDeath(record.recipient, 0);
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return 是否有客户端要求在变更通知中附带修改后的值；
+	 */
+	private boolean isNotifyValuesRequested(String name) {
+		synchronized (this) {
+			HashMap<IBinder, MessengerRecord> records = mMessengers == null ? null : mMessengers.get(name);
+			if (records != null) {
+				for (MessengerRecord record : records.values()) {
+					if (record.values) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private MessengerRecord removeMessenger(String name, IBinder binder) {
+		synchronized (this) {
+			HashMap<IBinder, MessengerRecord> records = mMessengers == null ? null : mMessengers.get(name);
+			if (records == null) {
+				return null;
+			}
+			MessengerRecord record = records.remove(binder);
+			if (records.isEmpty()) {
+				mMessengers.remove(name);
+			}
+			return record;
+		}
+	}
+
+	/**
+	 * 变更先直接推送给注册了Messenger的客户端，不经过system_server的广播队列；只有存在广播方式的监听时才发送广播；<br>
+	 * KEY_TIME为发出时的SystemClock.uptimeMillis()，各进程共用同一个时钟，客户端据此统计通知延迟；<br>
+	 * valuesModified不为null时作为KEY_VALUES附带修改后的值，编码后超过{@link #NOTIFY_VALUES_MAX_SIZE}时不附带；
+	 */
+	private void notifyListeners(String name, ArrayList<String> keysModified, HashMap<String, Object> valuesModified, long version) {
+		if (keysModified != null && !keysModified.isEmpty()) {
+			Bundle data = new Bundle();
+			data.putString(KEY_NAME, name);
+			data.putByteArray(KEY, PreferencesCodec.encodeStrings(keysModified));
+			putValuesModified(data, valuesModified);
+			data.putLong(KEY_VERSION, version);
+			data.putLong(KEY_GENERATION, mGeneration);
+			data.putLong(KEY_TIME, SystemClock.uptimeMillis());
+			ArrayList<MessengerRecord> records = null;
+			synchronized (this) {
+				HashMap<IBinder, MessengerRecord> map = mMessengers == null ? null : mMessengers.get(name);
+				if (map != null) {
+					records = new ArrayList<MessengerRecord>(map.values());
+				}
+			}
+			if (records != null) {
+				for (MessengerRecord record : records) {
+					Bundle recordData = data;
+					if (record.filter != null) { // 只通知这个客户端监听的key；
+						ArrayList<String> keys = new ArrayList<String>();
+						for (String k : keysModified) {
+							if (record.filter.matches(k)) {
+								keys.add(k);
+							}
+						}
+						if (keys.isEmpty()) {
+							continue;
+						}
+						if (keys.size() < keysModified.size()) {
+							recordData = new Bundle(data);
+							recordData.putByteArray(KEY, PreferencesCodec.encodeStrings(keys));
+							recordData.remove(KEY_VALUES);
+							if (valuesModified != null && record.values) {
+								HashMap<String, Object> values = new HashMap<String, Object>();
+								for (String k : keys) {
+									values.put(k, valuesModified.get(k));
+								}
+								putValuesModified(recordData, values);
+							}
+						}
+					}
+					Message message = Message.obtain();
+					message.setData(recordData);
+					try {
+						record.messenger.send(message);
+					} catch (RemoteException e) { // 客户端进程已经死亡，等不到binderDied()，直接注销；
+						removeMessenger(name, record.messenger.getBinder());
+					}
+				}
+			}
+			if (hasBroadcastListeners(name)) {
+				Intent intent = new Intent();
+				intent.setAction(makeAction(name));
+				intent.setPackage(getContext().getPackageName());
+				intent.putExtras(data);
+				getContext().sendBroadcast(intent);
+			}
+		}
+	}
+
+	private static void putValuesModified(Bundle data, HashMap<String, Object> valuesModified) {
+		if (valuesModified != null) {
+			byte[] bytes = PreferencesCodec.encodeMap(valuesModified);
+			if (bytes.length <= NOTIFY_VALUES_MAX_SIZE) {
+				data.putByteArray(KEY_VALUES, bytes);
+			}
+		}
+	}
+
+	/**
+	 * 异步接口的结果回调；
+	 */
+	public interface AsyncCallback<T> {
+		void onResult(T result);
+
+		/**
+		 * @param e 读取类型不一致时的ClassCastException、线程池队列已满时的RejectedExecutionException等；
+		 */
+		void onError(Throwable e);
+	}
+
+	/**
+	 * 异步接口线程池的统计；
+	 */
+	public static final class AsyncMetrics {
+		public final int queueDepth; // 等待执行的任务数；
+		public final int maxQueueDepth;
+		public final int activeCount; // 正在跨进程调用的线程数；
+		public final long completedCount;
+		public final long dedupedCount; // 共用了正在进行的读取的次数；
+		public final long rejectedCount; // 队列已满被拒绝的次数；
+
+		AsyncMetrics(int queueDepth, int maxQueueDepth, int activeCount, long completedCount, long dedupedCount, long rejectedCount) {
+			this.queueDepth = queueDepth;
+			this.maxQueueDepth = maxQueueDepth;
+			this.activeCount = activeCount;
+			this.completedCount = completedCount;
+			this.dedupedCount = dedupedCount;
+			this.rejectedCount = rejectedCount;
+		}
+
+		@Override
+		public String toString() {
+			return "AsyncMetrics{queueDepth=" + queueDepth + ", maxQueueDepth=" + maxQueueDepth + ", activeCount=" + activeCount + ", completedCount=" + completedCount
+					+ ", dedupedCount=" + dedupedCount + ", rejectedCount=" + rejectedCount + "}";
+		}
+	}
+
+	/**
+	 * ContentProvider中存储引擎的统计；
+	 */
+	public static final class StorageStats {
+		public final long hits; // 访问时已在内存中的次数；
+		public final long misses; // 访问时需要（重新）加载的次数；
+		public final long evictions; // 超出内存预算被卸载的次数；
+		public final int loadedCount; // 当前在内存中的name数，包括系统SharedPreferences；
+		public final long memorySize; // 可卸载的存储引擎当前估算的内存大小；
+		public final long memoryBudget;
+
+		StorageStats(long hits, long misses, long evictions, int loadedCount, long memorySize, long memoryBudget) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.loadedCount = loadedCount;
+			this.memorySize = memorySize;
+			this.memoryBudget = memoryBudget;
+		}
+
+		@Override
+		public String toString() {
+			return "StorageStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", loadedCount=" + loadedCount + ", memorySize=" + memorySize
+					+ ", memoryBudget=" + memoryBudget + "}";
+		}
+	}
+
+	/**
+	 * {@link #getChangesSince(long, long)}的结果；
+	 */
+	public static final class ChangeSet {
+		public final long generation; // ContentProvider的启动标识，下一次调用时传入；
+		public final long sequence; // 结果包含到的序号，下一次调用时传入；
+		public final boolean full; // values是否为全部数据，为true时调用方应丢弃原有数据；
+		public final Map<String, ?> values; // full为false时只有修改的key，删除的key对应null；
+
+		ChangeSet(long generation, long sequence, boolean full, Map<String, ?> values) {
+			this.generation = generation;
+			this.sequence = sequence;
+			this.full = full;
+			this.values = Collections.unmodifiableMap(values);
+		}
+
+		@Override
+		public String toString() {
+			return "ChangeSet{generation=" + generation + ", sequence=" + sequence + ", full=" + full + ", values=" + values.size() + "}";
+		}
+	}
+
+	private static final class MappedStoreHolder {
+		boolean mapped;
+		boolean coldStart;
+		MappedPreferencesStore store;
+		long generation; // 打开store时读取的{@link #MAPPED_STORE_GENERATION_FILE_NAME}；
+		long retryTime;
+	}
+
+	private static final class UpdateRequest {
+		final boolean sync;
+		final boolean clear;
+		final HashMap<String, Object> modified;
+		ArrayList<String> keysModified;
+		int result;
+		boolean done;
+		final AtomicOperation operation; // 原子操作，null表示普通写入；
+		final String key;
+
+		UpdateRequest(boolean sync, boolean clear, HashMap<String, Object> modified) {
+			this.sync = sync;
+			this.clear = clear;
+			this.modified = modified;
+			this.operation = null;
+			this.key = null;
+		}
+
+		UpdateRequest(AtomicOperation operation, String key) {
+			this.sync = true;
+			this.clear = false;
+			this.modified = new HashMap<String, Object>();
+			this.operation = operation;
+			this.key = key;
+		}
+	}
+
+	private static final class GroupCommit {
+		final ArrayList<UpdateRequest> pending = new ArrayList<UpdateRequest>();
+		boolean writing;
+	}
+
+	/**
+	 * 默认的存储引擎，使用系统的SharedPreferences；
+	 */
+	static final class SystemStorageEngine implements StorageEngine {
+		private final SharedPreferences mPreferences;
+
+		SystemStorageEngine(SharedPreferences preferences) {
+			mPreferences = preferences;
+		}
+
+		@Override
+		public Map<String, ?> getAll() {
+			return mPreferences.getAll();
+		}
+
+		/**
+		 * SharedPreferences没有按key读取任意类型的接口，存在时从getAll()的副本中读取；
+		 */
+		@Override
+		public Object get(String key) {
+			return mPreferences.contains(key) ? mPreferences.getAll().get(key) : null;
+		}
+
+		@Override
+		public String getString(String key, String defValue) {
+			return mPreferences.getString(key, defValue);
+		}
+
+		@Override
+		public int getInt(String key, int defValue) {
+			return mPreferences.getInt(key, defValue);
+		}
+
+		@Override
+		public long getLong(String key, long defValue) {
+			return mPreferences.getLong(key, defValue);
+		}
+
+		@Override
+		public float getFloat(String key, float defValue) {
+			return mPreferences.getFloat(key, defValue);
+		}
+
+		@Override
+		public boolean getBoolean(String key, boolean defValue) {
+			return mPreferences.getBoolean(key, defValue);
+		}
+
+		@Override
+		public Set<String> getStringSet(String key, Set<String> defValues) {
+			return ReflectionUtil.sharedPreferencesGetStringSet(mPreferences, key, defValues); // Android 3.0
+		}
+
+		@Override
+		public boolean contains(String key) {
+			return mPreferences.contains(key);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean write(boolean clear, Map<String, Object> modified, boolean sync) {
+			Editor editor = mPreferences.edit();
+			if (clear) {
+				editor.clear();
+			}
+			for (Map.Entry<String, Object> entry : modified.entrySet()) {
+				String k = entry.getKey();
+				Object v = entry.getValue();
+				if (v == null) {
+					editor.remove(k);
+				} else if (v instanceof String) {
+					editor.putString(k, (String) v);
+				} else if (v instanceof Set) {
+					ReflectionUtil.editorPutStringSet(editor, k, (Set<String>) v); // Android 3.0
+				} else if (v instanceof Integer) {
+					editor.putInt(k, (Integer) v);
+				} else if (v instanceof Long) {
+					editor.putLong(k, (Long) v);
+				} else if (v instanceof Float) {
+					editor.putFloat(k, (Float) v);
+				} else if (v instanceof Boolean) {
+					editor.putBoolean(k, (Boolean) v);
+				}
+			}
+			if (sync) {
+				return editor.commit();
+			}
+			ReflectionUtil.editorApply(editor); // Android 2.3
+			return true;
+		}
+	}
+
+	private static final class MessengerRecord {
+		final Messenger messenger;
+		final IBinder.DeathRecipient recipient;
+		final boolean values;
+		final KeyFilter filter; // null表示全部key；
+		final int pid;
+
+		MessengerRecord(Messenger messenger, IBinder.DeathRecipient recipient, boolean values, KeyFilter filter, int pid) {
+			this.messenger = messenger;
+			this.recipient = recipient;
+			this.values = values;
+			this.filter = filter;
+			this.pid = pid;
+		}
+	}
+
+	/**
+	 * 进程内name对应的读缓存；<br>
+	 * 第一次读取时先注册变更监听再通过一次getAll填充，收到版本号更新的变更通知或本进程写入后失效，下次读取时重新填充；<br>
+	 * 失效时保留原有数据和版本号，重新填充时先通过getChangesSince只取之后的修改，修改记录已丢弃时才读取全部数据；
+	 */
+	private static final class ValueCache implements ChangeObserver {
+		private final String mName;
+		private MultiprocessSharedPreferences mPreferences; // 使用ApplicationContext，避免持有调用方的Activity；
+		private HashMap<String, Object> mValues;
+		private HashMap<String, Object> mStaleValues; // 失效前的数据，对应mGeneration和mVersion；
+		private long mGeneration;
+		private long mVersion;
+		private int mInvalidateCount;
+
+		ValueCache(String name) {
+			mName = name;
+		}
+
+		/**
+		 * @return 缓存的全部数据，不能修改；无法填充时返回null，由调用方走跨进程读取；
+		 */
+		Map<String, Object> getValues(MultiprocessSharedPreferences sp) {
+			synchronized (this) {
+				if (mValues != null) {
+					return mValues;
+				}
+			}
+			int invalidateCount = prepareFill(sp);
+			if (invalidateCount < 0) {
+				return null;
+			}
+			MultiprocessSharedPreferences preferences = getPreferences();
+			HashMap<String, Object> values = getValuesSinceStale(preferences, invalidateCount);
+			if (values != null) {
+				return values;
+			}
+			Bundle bundle = preferences.getBundle(PATH_GET_ALL, null, null);
+			@SuppressWarnings("unchecked")
+			HashMap<String, Object> all = bundle == null ? null : (HashMap<String, Object>) getBundleValue(PATH_GET_ALL, bundle);
+			if (all == null) {
+				return null;
+			}
+			fill(all, bundle.getLong(KEY_GENERATION), bundle.getLong(KEY_VERSION), invalidateCount);
+			return all;
+		}
+
+		/**
+		 * 在失效前的数据上合并之后的修改；
+		 * 
+		 * @return 没有失效前的数据或者需要读取全部数据时返回null；
+		 */
+		private HashMap<String, Object> getValuesSinceStale(MultiprocessSharedPreferences preferences, int invalidateCount) {
+			HashMap<String, Object> stale;
+			long generation;
+			long version;
+			synchronized (this) {
+				stale = mStaleValues;
+				generation = mGeneration;
+				version = mVersion;
+			}
+			if (stale == null) {
+				return null;
+			}
+			Bundle bundle = preferences.getBundle(PATH_GET_CHANGES_SINCE, String.valueOf(generation), version);
+			HashMap<String, Object> changes = bundle == null ? null : PreferencesCodec.decodeMap(bundle.getByteArray(KEY));
+			if (changes == null) {
+				return null;
+			}
+			HashMap<String, Object> values = bundle.getBoolean(KEY_CLEAR) ? new HashMap<String, Object>() : new HashMap<String, Object>(stale);
+			mergeValues(values, changes);
+			fill(values, bundle.getLong(KEY_GENERATION), bundle.getLong(KEY_VERSION), invalidateCount);
+			if (DEBUG) {
+				Log.d(TAG, "ValueCache.mName = " + mName + ", version = " + version + " -> " + bundle.getLong(KEY_VERSION) + ", changes = " + changes.size());
+			}
+			return values;
+		}
+
+		synchronized boolean isFilled() {
+			return mValues != null;
+		}
+
+		/**
+		 * @return 已填充的数据，不能修改；没有填充时返回null，不跨进程读取；
+		 */
+		synchronized Map<String, Object> peekValues() {
+			return mValues;
+		}
+
+		/**
+		 * 填充之前先注册变更监听，保证读取之后的修改都能收到通知；
+		 * 
+		 * @return 传给{@link #fill(HashMap, long, long, int)}的计数，注册失败时返回-1；
+		 */
+		int prepareFill(MultiprocessSharedPreferences sp) {
+			MultiprocessSharedPreferences preferences;
+			synchronized (this) {
+				if (mPreferences == null) {
+					mPreferences = getInstance(sp.mContext, mName, sp.mMode);
+				}
+				preferences = mPreferences;
+			}
+			if (!getChangeChannel(preferences.mContext).addObserver(preferences, this)) {
+				return -1;
+			}
+			synchronized (this) {
+				return mInvalidateCount;
+			}
+		}
+
+		/**
+		 * @param values {@link #prepareFill(MultiprocessSharedPreferences)}之后读取的全部数据；
+		 */
+		void fill(HashMap<String, Object> values, long generation, long version, int invalidateCount) {
+			if (!getChangeChannel(getPreferences().mContext).checkGeneration(mName, generation)) { // 注册之后ContentProvider所在进程重启过，注册已丢失；
+				return;
+			}
+			synchronized (this) {
+				// 填充期间收到过变更通知或本进程有写入，这份数据可能已过期，只用于本次读取不放入缓存；
+				if (invalidateCount == mInvalidateCount) {
+					mValues = values;
+					mStaleValues = null;
+					mGeneration = generation;
+					mVersion = version;
+				}
+			}
+		}
+
+		private synchronized MultiprocessSharedPreferences getPreferences() {
+			return mPreferences;
+		}
+
+		@Override
+		public void onChanged(Bundle data, Map<String, Object> values) {
+			long generation = data.getLong(KEY_GENERATION);
+			long version = data.getLong(KEY_VERSION);
+			synchronized (this) {
+				if (mValues != null && generation == mGeneration) {
+					if (version <= mVersion) { // 这次修改已包含在缓存中；
+						return;
+					}
+					if (values != null && version == mVersion + 1) { // 紧接着缓存的下一次修改，直接合并通知中的值；
+						HashMap<String, Object> newValues = new HashMap<String, Object>(mValues);
+						mergeValues(newValues, values);
+						mValues = newValues; // 已返回给调用方的Map不能修改，替换为新的Map；
+						mVersion = version;
+						mInvalidateCount++;
+						return;
+					}
+				}
+				invalidate();
+			}
+		}
+
+		@Override
+		public void onReset() {
+			synchronized (this) {
+				invalidate();
+				mStaleValues = null; // ContentProvider所在进程已重启，之前的版本号不再有效；
+			}
+		}
+
+		@Override
+		public KeyFilter getKeyFilter() {
+			return null; // 缓存的是全部数据；
+		}
+
+		synchronized void invalidate() {
+			if (mValues != null) {
+				mStaleValues = mValues;
+			}
+			mValues = null;
+			mInvalidateCount++;
+		}
+
+		private static void mergeValues(HashMap<String, Object> values, Map<String, Object> changes) {
+			for (Map.Entry<String, Object> entry : changes.entrySet()) {
+				if (entry.getValue() == null) {
+					values.remove(entry.getKey());
+				} else {
+					values.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		void release() {
+			MultiprocessSharedPreferences preferences;
+			synchronized (this) {
+				invalidate();
+				mStaleValues = null;
+				preferences = mPreferences;
+			}
+			if (preferences != null) {
+				getChangeChannel(preferences.mContext).removeObserver(mName, this);
+			}
+		}
+	}
+
+	/**
+	 * 进程内的变更监听回调；
+	 */
+	private interface ChangeObserver {
+		/**
+		 * @param data ContentProvider发出的变更数据，包含KEY_NAME、KEY（修改的key列表）、KEY_VERSION、KEY_GENERATION；
+		 * @param values 通知中附带的修改后的值，删除的key对应null；没有附带时为null；
+		 */
+		void onChanged(Bundle data, Map<String, Object> values);
+
+		/**
+		 * ContentProvider所在进程重启，期间的变更可能已丢失；
+		 */
+		void onReset();
+
+		/**
+		 * @return 监听的key范围，null表示全部key；
+		 */
+		KeyFilter getKeyFilter();
+	}
+
+	/**
+	 * 监听的key范围：指定的key和以指定前缀开头的key；
+	 */
+	private static final class KeyFilter {
+		private final HashSet<String> mKeys = new HashSet<String>();
+		private final HashSet<String> mPrefixes = new HashSet<String>();
+
+		KeyFilter(Collection<String> keys, Collection<String> prefixes) {
+			if (keys != null) {
+				mKeys.addAll(keys);
+			}
+			if (prefixes != null) {
+				mPrefixes.addAll(prefixes);
+			}
+		}
+
+		boolean matches(String key) {
+			if (key == null) {
+				return false;
+			}
+			if (mKeys.contains(key)) {
+				return true;
+			}
+			for (String prefix : mPrefixes) {
+				if (key.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean matchesAny(Collection<String> keys) {
+			for (String key : keys) {
+				if (matches(key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void addAll(KeyFilter filter) {
+			mKeys.addAll(filter.mKeys);
+			mPrefixes.addAll(filter.mPrefixes);
+		}
+
+		void writeTo(Bundle bundle) {
+			bundle.putStringArray(KEY_KEYS, mKeys.toArray(new String[mKeys.size()]));
+			bundle.putStringArray(KEY_PREFIXES, mPrefixes.toArray(new String[mPrefixes.size()]));
+		}
+
+		/**
+		 * @return bundle中没有key范围时返回null，表示全部key；
+		 */
+		static KeyFilter readFrom(Bundle bundle) {
+			String[] keys = bundle.getStringArray(KEY_KEYS);
+			String[] prefixes = bundle.getStringArray(KEY_PREFIXES);
+			if (keys == null && prefixes == null) {
+				return null;
+			}
+			return new KeyFilter(keys == null ? null : Arrays.asList(keys), prefixes == null ? null : Arrays.asList(prefixes));
+		}
+
+		static boolean equals(KeyFilter a, KeyFilter b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof KeyFilter)) {
+				return false;
+			}
+			KeyFilter filter = (KeyFilter) o;
+			return mKeys.equals(filter.mKeys) && mPrefixes.equals(filter.mPrefixes);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * mKeys.hashCode() + mPrefixes.hashCode();
+		}
+	}
+
+	/**
+	 * 进程内共用的变更通知通道，每个name只向ContentProvider注册一次，收到变更后分发给进程内的所有ChangeObserver（读缓存排在最前面）；<br>
+	 * Android 3.0以上注册一个Messenger，ContentProvider直接通过Binder推送变更，不经过system_server的广播队列；
+	 * 低版本没有ContentResolver.call()无法传递Binder，仍使用广播；<br>
+	 * ContentProvider所在进程重启后之前的注册都已丢失，收到ACTION_PROVIDER_CREATED广播后在后台线程重新注册；
+	 */
+	private static final class ChangeChannel {
+		private static final String CHANNEL_MESSENGER = "messenger";
+		private static final String CHANNEL_BROADCAST = "broadcast";
+		private final Context mContext;
+		private final Messenger mMessenger; // Android 3.0
+		private final HashMap<String, Registration> mRegistrations = new HashMap<String, Registration>();
+		private static final ThreadLocal<HashMap<String, Map<String, Object>>> sDispatchingValues = new ThreadLocal<HashMap<String, Map<String, Object>>>();
+		private final Runnable mRegisterRunnable = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ChangeChannel.this) {
+					for (Registration registration : mRegistrations.values()) {
+						if (!registration.registered) {
+							register(registration);
+						}
+					}
+				}
+			}
+		};
+
+		private static final class Registration {
+			final MultiprocessSharedPreferences preferences;
+			final ArrayList<ChangeObserver> observers = new ArrayList<ChangeObserver>();
+			boolean registered;
+			long generation;
+			KeyFilter filter; // 注册时的监听范围；
+			BroadcastReceiver receiver;
+
+			Registration(MultiprocessSharedPreferences preferences) {
+				this.preferences = preferences;
+			}
+		}
+
+		ChangeChannel(Context context) {
+			mContext = context;
+			if (Build.VERSION.SDK_INT >= 11 && sMessengerChannelEnabled) { // Android 3.0
+				mMessenger = new Messenger(new Handler(Looper.getMainLooper()) {
+					@Override
+					public void handleMessage(Message msg) {
+						dispatch(msg.getData(), CHANNEL_MESSENGER);
+					}
+				});
+			} else {
+				mMessenger = null;
+			}
+			mContext.registerReceiver(new BroadcastReceiver() {
+				@Override
+				public void onReceive(Context context, Intent intent) {
+					onProviderCreated();
+				}
+			}, new IntentFilter(ACTION_PROVIDER_CREATED));
+		}
+
+		/**
+		 * name还没有注册或者监听范围有变化时同步向ContentProvider注册；observer已添加时用于更新监听范围；
+		 * 
+		 * @return 是否已注册成功，失败时不添加observer；
+		 */
+		boolean addObserver(MultiprocessSharedPreferences sp, ChangeObserver observer) {
+			synchronized (this) {
+				Registration registration = mRegistrations.get(sp.mName);
+				if (registration == null) {
+					registration = new Registration(getInstance(mContext, sp.mName, sp.mMode));
+					mRegistrations.put(sp.mName, registration);
+				}
+				boolean added = false;
+				if (!registration.observers.contains(observer)) {
+					if (observer instanceof ValueCache) { // 先让缓存失效，保证监听回调中读到的是新值；
+						registration.observers.add(0, observer);
+					} else {
+						registration.observers.add(observer);
+					}
+					added = true;
+				}
+				if (!updateRegistration(registration)) {
+					if (added) {
+						registration.observers.remove(observer);
+					}
+					if (registration.observers.isEmpty()) {
+						mRegistrations.remove(sp.mName);
+					}
+					return false;
+				}
+				return true;
+			}
+		}
+
+		void removeObserver(String name, ChangeObserver observer) {
+			synchronized (this) {
+				Registration registration = mRegistrations.get(name);
+				if (registration == null) {
+					return;
+				}
+				registration.observers.remove(observer);
+				if (registration.observers.isEmpty()) {
+					mRegistrations.remove(name);
+					if (registration.registered) {
+						registration.preferences.setChangeListenerRegistered(false, mMessenger, null);
+					}
+					if (registration.receiver != null) {
+						mContext.unregisterReceiver(registration.receiver);
+					}
+				} else if (registration.registered) {
+					updateRegistration(registration); // 缩小监听范围；
+				}
+			}
+		}
+
+		/**
+		 * @return generation是否与注册时ContentProvider的启动标识一致；不一致时说明注册已丢失，标记为未注册，下次addObserver()时重新注册；
+		 */
+		boolean checkGeneration(String name, long generation) {
+			synchronized (this) {
+				Registration registration = mRegistrations.get(name);
+				if (registration == null || !registration.registered) {
+					return false;
+				}
+				if (registration.generation != generation) {
+					registration.registered = false;
+					return false;
+				}
+				return true;
+			}
+		}
+
+		private boolean updateRegistration(Registration registration) {
+			if (registration.registered && KeyFilter.equals(registration.filter, getObserversFilter(registration))) {
+				return true;
+			}
+			return register(registration);
+		}
+
+		/**
+		 * @return 所有observer监听的key范围之和，有监听全部key的返回null；广播方式不支持按key过滤，总是返回null；
+		 */
+		private KeyFilter getObserversFilter(Registration registration) {
+			if (mMessenger == null) {
+				return null;
+			}
+			KeyFilter filter = new KeyFilter(null, null);
+			for (ChangeObserver observer : registration.observers) {
+				KeyFilter observerFilter = observer.getKeyFilter();
+				if (observerFilter == null) {
+					return null;
+				}
+				filter.addAll(observerFilter);
+			}
+			return filter;
+		}
+
+		private boolean register(final Registration registration) {
+			KeyFilter filter = getObserversFilter(registration);
+			Bundle bundle = registration.preferences.setChangeListenerRegistered(true, mMessenger, filter);
+			registration.registered = bundle != null && bundle.getBoolean(KEY);
+			registration.generation = bundle == null ? 0 : bundle.getLong(KEY_GENERATION);
+			registration.filter = filter;
+			if (registration.registered && mMessenger == null && registration.receiver == null) {
+				registration.receiver = new BroadcastReceiver() {
+					@Override
+					public void onReceive(Context context, Intent intent) {
+						dispatch(intent.getExtras(), CHANNEL_BROADCAST);
+					}
+				};
+				mContext.registerReceiver(registration.receiver, new IntentFilter(makeAction(registration.preferences.mName)));
+			}
+			return registration.registered;
+		}
+
+		private void dispatch(Bundle data, String channel) {
+			String name = data == null ? null : data.getString(KEY_NAME);
+			if (name == null) {
+				return;
+			}
+			ArrayList<ChangeObserver> observers;
+			synchronized (this) {
+				Registration registration = mRegistrations.get(name);
+				if (registration == null) {
+					return;
+				}
+				observers = new ArrayList<ChangeObserver>(registration.observers);
+			}
+			if (DEBUG) {
+				Log.d(TAG, "onChanged.name = " + name + ", channel = " + channel + ", latency = " + (SystemClock.uptimeMillis() - data.getLong(KEY_TIME)) + "ms");
+			}
+			Map<String, Object> values = PreferencesCodec.decodeMap(data.getByteArray(KEY_VALUES));
+			if (values == null) {
+				for (ChangeObserver observer : observers) {
+					observer.onChanged(data, null);
+				}
+				return;
+			}
+			values = Collections.unmodifiableMap(values);
+			HashMap<String, Map<String, Object>> dispatching = sDispatchingValues.get();
+			if (dispatching == null) {
+				dispatching = new HashMap<String, Map<String, Object>>();
+				sDispatchingValues.set(dispatching);
+			}
+			Map<String, Object> previous = dispatching.put(name, values);
+			try {
+				for (ChangeObserver observer : observers) {
+					observer.onChanged(data, values);
+				}
+			} finally {
+				if (previous == null) {
+					dispatching.remove(name);
+				} else {
+					dispatching.put(name, previous);
+				}
+			}
+		}
+
+		/**
+		 * @return 当前线程正在分发的name的变更通知中附带的值，监听回调中读取这些key时不需要跨进程；
+		 */
+		static Map<String, Object> getDispatchingValues(String name) {
+			HashMap<String, Map<String, Object>> dispatching = sDispatchingValues.get();
+			return dispatching == null ? null : dispatching.get(name);
+		}
+
+		private void onProviderCreated() {
+			ArrayList<ChangeObserver> observers = new ArrayList<ChangeObserver>();
+			synchronized (this) {
+				for (Registration registration : mRegistrations.values()) {
+					registration.registered = false;
+					observers.addAll(registration.observers);
+				}
+			}
+			for (ChangeObserver observer : observers) {
+				observer.onReset();
+			}
+			getBackgroundHandler().post(mRegisterRunnable);
+		}
+	}
+
+	/**
+	 * 进程内name对应的apply()写缓冲；<br>
+	 * 连续的apply()合并到mModified中（clear()会丢弃之前的修改），由{@link #getApplyHandler()}用一次update()写入；
+	 * 写入过程中的修改保存在mInFlight中，写入完成前仍对本进程的读取可见；<br>
+	 * 修改只在内存中，进程被杀前没有写入的会丢失，与系统SharedPreferences相同，由{@link #flushPendingWrites()}在Activity.onStop()之后等待写入完成；
+	 */
+	private static final class PendingWrites {
+		static final Object NOT_PENDING = new Object();
+		private final MultiprocessSharedPreferences mPreferences; // 使用ApplicationContext，避免持有调用方的Activity；
+		private final Object mFlushLock = new Object();
+		private boolean mClear;
+		private HashMap<String, Object> mModified = new HashMap<String, Object>();
+		private boolean mInFlightClear;
+		private HashMap<String, Object> mInFlight;
+		private boolean mScheduled;
+		private final Runnable mFlushRunnable = new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+
+		PendingWrites(MultiprocessSharedPreferences sp) {
+			mPreferences = getInstance(sp.mContext, sp.mName, sp.mMode);
+		}
+
+		/**
+		 * @return 写缓冲是否已超过{@link #PENDING_WRITES_MAX_KEYS}，调用方需要同步{@link #flush()}；
+		 */
+		synchronized boolean enqueue(boolean clear, Map<String, Object> modified) {
+			if (clear) {
+				mClear = true;
+				mModified.clear();
+			}
+			mModified.putAll(modified);
+			if (!mScheduled) {
+				mScheduled = true;
+				getApplyHandler().post(mFlushRunnable);
+			}
+			return mModified.size() > PENDING_WRITES_MAX_KEYS;
+		}
+
+		/**
+		 * 把当前积累的修改用一次update()写入，后台线程和commit()都会调用，按调用顺序依次写入；
+		 */
+		void flush() {
+			synchronized (mFlushLock) {
+				boolean clear;
+				HashMap<String, Object> modified;
+				synchronized (this) {
+					mScheduled = false;
+					if (!mClear && mModified.isEmpty()) {
+						return;
+					}
+					clear = mInFlightClear = mClear;
+					modified = mInFlight = mModified;
+					mClear = false;
+					mModified = new HashMap<String, Object>();
+				}
+				try {
+					// 同进程调用时ContentProvider会清空传入的values，这里传副本，写入完成前mInFlight保持可读；
+					mPreferences.setValue(PATH_APPLY, clear, new HashMap<String, Object>(modified));
+				} finally {
+					synchronized (this) {
+						mInFlightClear = false;
+						mInFlight = null;
+					}
+				}
+			}
+		}
+
+		synchronized boolean isEmpty() {
+			return !mClear && mModified.isEmpty() && mInFlight == null;
+		}
+
+		/**
+		 * @return key待写入的值（null表示已删除），key没有待写入的修改时返回{@link #NOT_PENDING}；
+		 */
+		synchronized Object get(String key) {
+			if (mModified.containsKey(key)) {
+				return mModified.get(key);
+			} else if (mClear) {
+				return null;
+			} else if (mInFlight != null) {
+				if (mInFlight.containsKey(key)) {
+					return mInFlight.get(key);
+				} else if (mInFlightClear) {
+					return null;
+				}
+			}
+			return NOT_PENDING;
+		}
+
+		/**
+		 * 把待写入的修改按顺序叠加到getAll()的结果上；
+		 */
+		synchronized void applyTo(Map<String, Object> map) {
+			if (mInFlight != null) {
+				applyTo(map, mInFlightClear, mInFlight);
+			}
+			applyTo(map, mClear, mModified);
+		}
+
+		private static void applyTo(Map<String, Object> map, boolean clear, Map<String, Object> modified) {
+			if (clear) {
+				map.clear();
+			}
+			for (Map.Entry<String, Object> entry : modified.entrySet()) {
+				if (entry.getValue() == null) {
+					map.remove(entry.getKey());
+				} else {
+					map.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * 进程内所有MultiprocessSharedPreferences共用的ContentProviderClient；<br>
+	 * ContentResolver.call()每次都要acquire/release一次unstable provider，多出ActivityManager的跨进程调用，
+	 * 也是“unstableCount < 0”崩溃的来源；这里持有一个unstable的ContentProviderClient重复使用，
+	 * ContentProvider所在进程死亡（DeadObjectException）后重新获取，空闲一段时间后释放；<br>
+	 * Android 4.2以下没有ContentProviderClient.call()，仍然使用ContentResolver.call()；
+	 */
+	private static final class SharedProviderClient {
+		private static final long IDLE_RELEASE_DELAY = 30 * 1000;
+		private final ContentResolver mContentResolver;
+		private Handle mHandle;
+		private boolean mReleaseScheduled;
+		private final Runnable mReleaseRunnable = new Runnable() {
+			@Override
+			public void run() {
+				releaseIfIdle();
+			}
+		};
+
+		private static final class Handle {
+			final ContentProviderClient client;
+			int inUse;
+			long lastUsed;
+			boolean dead;
+
+			Handle(ContentProviderClient client) {
+				this.client = client;
+			}
+		}
+
+		SharedProviderClient(ContentResolver contentResolver) {
+			mContentResolver = contentResolver;
+		}
+
+		Bundle call(Uri uri, String method, String arg, Bundle extras) {
+			for (int i = 0; i < 2; i++) { // ContentProvider所在进程死亡时重新获取一次；
+				Handle handle = acquire(uri);
+				if (handle == null) {
+					return ReflectionUtil.contentResolverCall(mContentResolver, uri, method, arg, extras);
+				}
+				boolean dead = false;
+				try {
+					return ReflectionUtil.contentProviderClientCall(handle.client, method, arg, extras);
+				} catch (RemoteException e) {
+					// android.os.DeadObjectException
+					dead = true;
+					if (DEBUG) {
+						e.printStackTrace();
+					}
+				} finally {
+					release(handle, dead);
+				}
+			}
+			return null;
+		}
+
+		private synchronized Handle acquire(Uri uri) {
+			if (Build.VERSION.SDK_INT < 17) { // Android 4.2
+				return null;
+			}
+			if (mHandle == null) {
+				ContentProviderClient client = ReflectionUtil.contentResolverAcquireUnstableContentProviderClient(mContentResolver, uri);
+				if (client == null) {
+					return null;
+				}
+				mHandle = new Handle(client);
+			}
+			mHandle.inUse++;
+			return mHandle;
+		}
+
+		private synchronized void release(Handle handle, boolean dead) {
+			handle.inUse--;
+			handle.lastUsed = SystemClock.uptimeMillis();
+			if (dead) {
+				handle.dead = true;
+				if (handle == mHandle) {
+					mHandle = null;
+				}
+			}
+			if (handle.dead) {
+				if (handle.inUse == 0) { // 其他线程还在使用时，由最后一个使用者释放；
+					handle.client.release();
+				}
+			} else if (!mReleaseScheduled) {
+				mReleaseScheduled = true;
+				getBackgroundHandler().postDelayed(mReleaseRunnable, IDLE_RELEASE_DELAY);
+			}
+		}
+
+		private synchronized void releaseIfIdle() {
+			mReleaseScheduled = false;
+			if (mHandle == null) {
+				return;
+			}
+			long idle = SystemClock.uptimeMillis() - mHandle.lastUsed;
+			if (mHandle.inUse == 0 && idle >= IDLE_RELEASE_DELAY) {
+				mHandle.client.release();
+				mHandle = null;
+			} else {
+				mReleaseScheduled = true;
+				getBackgroundHandler().postDelayed(mReleaseRunnable, mHandle.inUse == 0 ? IDLE_RELEASE_DELAY - idle : IDLE_RELEASE_DELAY);
+			}
+		}
+	}
+
+	/**
+	 * 等待客户端通过openFile()读取的大的字符串，超过{@link #GET_ALL_SNAPSHOT_TIMEOUT}没有读取时丢弃；
+	 */
+	private static final class BlobSnapshot {
+		final String value;
+		final long time;
+
+		BlobSnapshot(String value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * 客户端通过openFile()写入的大的字符串，读取线程读完管道后countDown()，读取失败时value为null；
+	 */
+	private static final class BlobUpload {
+		final CountDownLatch done = new CountDownLatch(1);
+		final long time;
+		volatile String value;
+
+		BlobUpload(long time) {
+			this.time = time;
+		}
+	}
+
+	/**
+	 * 分页getAll()还未读取完的部分；
+	 */
+	private static final class GetAllSnapshot {
+		final Iterator<Map.Entry<String, Object>> iterator;
+		long lastAccess;
+
+		GetAllSnapshot(Map<String, Object> map) {
+			iterator = map.entrySet().iterator();
 		}
 	}
 
@@ -0,0 +1,242 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SharedPreferences取值的紧凑二进制编码，用于getAll()、getStringSet()、变更通知等多值数据的跨进程传递，代替Java序列化；<br>
+ * 格式：数量(int) + 逐项[key + 类型(byte) + 值]，字符串为长度(int，null为-1) + UTF-8字节，不依赖Android API；
+ */
+final class PreferencesCodec {
+	static final byte TYPE_NULL = 0;
+	static final byte TYPE_STRING = 1;
+	static final byte TYPE_INT = 2;
+	static final byte TYPE_LONG = 3;
+	static final byte TYPE_FLOAT = 4;
+	static final byte TYPE_BOOLEAN = 5;
+	static final byte TYPE_STRING_SET = 6;
+	private static final String CHARSET = "UTF-8";
+
+	private PreferencesCodec() {
+	}
+
+	/**
+	 * @param map value为null的项按null编码，用于表示删除；
+	 */
+	static byte[] encodeMap(Map<String, ?> map) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + map.size() * 32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			writeMap(out, map);
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // ByteArrayOutputStream不会抛出IOException
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 从entries中依次编码，编码后的长度达到maxBytes时停止，剩余的项留在entries中，用于分页传递大的getAll()结果；<br>
+	 * 单个项超过maxBytes时也会完整编码，格式与{@link #encodeMap(Map)}相同；
+	 */
+	static byte[] encodeMap(Iterator<? extends Map.Entry<String, ?>> entries, int maxBytes) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(maxBytes, 8 * 1024) + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		int count = 0;
+		try {
+			out.writeInt(0); // 数量，写完后回填
+			while (entries.hasNext() && bytes.size() < maxBytes) {
+				Map.Entry<String, ?> entry = entries.next();
+				writeString(out, entry.getKey());
+				writeValue(out, entry.getValue());
+				count++;
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] data = bytes.toByteArray();
+		data[0] = (byte) (count >>> 24);
+		data[1] = (byte) (count >>> 16);
+		data[2] = (byte) (count >>> 8);
+		data[3] = (byte) count;
+		return data;
+	}
+
+	static HashMap<String, Object> decodeMap(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		try {
+			return readMap(new DataInputStream(new ByteArrayInputStream(data)));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("decodeMap", e);
+		}
+	}
+
+	static byte[] encodeStrings(List<String> strings) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + strings.size() * 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				writeString(out, s);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static ArrayList<String> decodeStrings(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			int size = in.readInt();
+			ArrayList<String> strings = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				strings.add(readString(in));
+			}
+			return strings;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("decodeStrings", e);
+		}
+	}
+
+	static byte[] encodeStringSet(Set<String> set) {
+		return set == null ? null : encodeStrings(new ArrayList<String>(set));
+	}
+
+	static HashSet<String> decodeStringSet(byte[] data) {
+		ArrayList<String> strings = decodeStrings(data);
+		return strings == null ? null : new HashSet<String>(strings);
+	}
+
+	static void writeMap(DataOutputStream out, Map<String, ?> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, ?> entry : map.entrySet()) {
+			writeString(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	static HashMap<String, Object> readMap(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Invalid size: " + size);
+		}
+		HashMap<String, Object> map = new HashMap<String, Object>(Math.max(16, size * 4 / 3 + 1));
+		for (int i = 0; i < size; i++) {
+			String key = readString(in);
+			map.put(key, readValue(in));
+		}
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TYPE_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Set) {
+			Set<String> set = (Set<String>) value;
+			out.writeByte(TYPE_STRING_SET);
+			out.writeInt(set.size());
+			for (String s : set) {
+				writeString(out, s);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+		}
+	}
+
+	static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case TYPE_NULL:
+				return null;
+			case TYPE_STRING:
+				return readString(in);
+			case TYPE_INT:
+				return in.readInt();
+			case TYPE_LONG:
+				return in.readLong();
+			case TYPE_FLOAT:
+				return in.readFloat();
+			case TYPE_BOOLEAN:
+				return in.readBoolean();
+			case TYPE_STRING_SET: {
+				int size = in.readInt();
+				if (size < 0) {
+					throw new IOException("Invalid size: " + size);
+				}
+				HashSet<String> set = new HashSet<String>(Math.max(16, size * 4 / 3 + 1));
+				for (int i = 0; i < size; i++) {
+					set.add(readString(in));
+				}
+				return set;
+			}
+			default:
+				throw new IOException("Unknown type: " + type);
+		}
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = getBytes(s);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	private static byte[] getBytes(String s) {
+		try {
+			return s.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e); // UTF-8一定支持
+		}
+	}
+}
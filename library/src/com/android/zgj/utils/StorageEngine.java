@@ -0,0 +1,78 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MultiprocessSharedPreferences在ContentProvider所在进程中实际读写数据的存储引擎；<br>
+ * 默认使用系统的SharedPreferences（Context.getSharedPreferences()），可以通过{@link MultiprocessSharedPreferences#setStorageEngineFactory(String, Factory)}按name替换，客户端代码不需要修改；<br>
+ * ContentProvider在Binder线程池中并发调用，实现需要线程安全；读取的类型与保存的类型不一致时抛出ClassCastException，与SharedPreferences相同；
+ */
+public interface StorageEngine {
+
+	/**
+	 * @return 全部数据，调用方不会修改；
+	 */
+	Map<String, ?> getAll();
+
+	/**
+	 * 按key读取任意类型的值，用于getValues()、原子操作和修改检测，不需要知道值的类型；
+	 *
+	 * @return key不存在时返回null；
+	 */
+	Object get(String key);
+
+	String getString(String key, String defValue);
+
+	int getInt(String key, int defValue);
+
+	long getLong(String key, long defValue);
+
+	float getFloat(String key, float defValue);
+
+	boolean getBoolean(String key, boolean defValue);
+
+	Set<String> getStringSet(String key, Set<String> defValues);
+
+	boolean contains(String key);
+
+	/**
+	 * 写入一批修改，整体生效；
+	 *
+	 * @param clear 是否先清空原有数据，与Editor.clear()相同，不影响modified中的修改；
+	 * @param modified value为null表示删除这个key；
+	 * @param sync true对应commit()，写入磁盘后再返回；false对应apply()，可以异步写入磁盘，但返回前修改必须对读取可见；
+	 * @return 是否写入成功；
+	 */
+	boolean write(boolean clear, Map<String, Object> modified, boolean sync);
+
+	/**
+	 * 在ContentProvider所在进程中第一次使用name时创建存储引擎，之后一直复用；
+	 */
+	interface Factory {
+		StorageEngine create(Context context, String name, int mode);
+	}
+
+	/**
+	 * （可选）可以从内存中卸载数据的存储引擎，ContentProvider超出{@link MultiprocessSharedPreferences#setStorageMemoryBudget(long)}时卸载最久没有使用的；<br>
+	 * 卸载后同一个对象继续使用，下次访问时重新加载；系统SharedPreferences由系统一直缓存，无法卸载；
+	 */
+	interface Unloadable {
+		/**
+		 * @return 内存中数据的大致字节数，已卸载时为0；
+		 */
+		long getMemorySize();
+
+		/**
+		 * 所有修改都已写入文件时释放内存中的数据；
+		 *
+		 * @return 是否已卸载，还有修改没写入文件或者正在后台处理时返回false；
+		 */
+		boolean unload();
+	}
+}
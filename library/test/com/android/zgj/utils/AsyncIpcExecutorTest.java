@@ -0,0 +1,238 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link AsyncIpcExecutor}的读取合并、写入顺序和队列上限测试，用普通的Callable代替跨进程调用，不依赖Android API；
+ */
+public class AsyncIpcExecutorTest {
+	private static final long TIMEOUT = 5000;
+	private AsyncIpcExecutor mExecutor;
+	private CountDownLatch mRelease;
+
+	@Before
+	public void setUp() {
+		mExecutor = new AsyncIpcExecutor("test");
+		mRelease = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		mRelease.countDown();
+	}
+
+	@Test
+	public void identicalReadsShareOneCall() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		Callable<String> callable = blockingCallable(started, calls, "value");
+		AsyncIpcExecutor.Task<String> first = mExecutor.submit("name", "key", callable, null, null);
+		assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		RecordingCallback<String> callback = new RecordingCallback<String>();
+		AsyncIpcExecutor.Task<String> second = mExecutor.submit("name", "key", callable, null, callback);
+		assertSame(first, second);
+		AsyncIpcExecutor.Task<String> other = mExecutor.submit("name", "otherKey", constant("other"), null, null);
+		assertNotSame(first, other);
+
+		mRelease.countDown();
+		assertEquals("value", second.get(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals("other", other.get(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(callback.await());
+		assertEquals("value", callback.result.get());
+		assertEquals(1, calls.get());
+		assertEquals(1, mExecutor.getMetrics().dedupedCount);
+
+		// 已完成的读取不再共用；
+		assertEquals("value", mExecutor.submit("name", "key", callable, null, null).get(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void detachInFlightStartsNewCall() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		Callable<String> callable = blockingCallable(started, calls, "value");
+		AsyncIpcExecutor.Task<String> first = mExecutor.submit("name", "key", callable, null, null);
+		assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		mExecutor.detachInFlight("other"); // 只影响同一个name；
+		assertSame(first, mExecutor.submit("name", "key", callable, null, null));
+		mExecutor.detachInFlight("name"); // 本进程修改了name之后；
+		AsyncIpcExecutor.Task<String> second = mExecutor.submit("name", "key", callable, null, null);
+		assertNotSame(first, second);
+		mRelease.countDown();
+		second.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		first.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void serialTasksRunOneAtATimeInOrder() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<AsyncIpcExecutor.Task<Integer>> tasks = new ArrayList<AsyncIpcExecutor.Task<Integer>>();
+		for (int i = 0; i < 50; i++) {
+			final int index = i;
+			tasks.add(mExecutor.submitSerial(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int count = running.incrementAndGet();
+					if (count > maxRunning.get()) {
+						maxRunning.set(count);
+					}
+					Thread.sleep(index % 3); // 线程池有两个线程，前一个没完成时下一个不能开始；
+					order.add(index);
+					running.decrementAndGet();
+					return index;
+				}
+			}, null, null));
+		}
+		for (int i = 0; i < tasks.size(); i++) {
+			assertEquals(Integer.valueOf(i), tasks.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+		}
+		assertEquals(1, maxRunning.get());
+		for (int i = 0; i < order.size(); i++) {
+			assertEquals(Integer.valueOf(i), order.get(i));
+		}
+	}
+
+	@Test
+	public void serialTaskFailureDoesNotStopQueue() throws Exception {
+		AsyncIpcExecutor.Task<String> failed = mExecutor.submitSerial(new Callable<String>() {
+			@Override
+			public String call() {
+				throw new IllegalStateException("commit failed");
+			}
+		}, null, null);
+		AsyncIpcExecutor.Task<String> next = mExecutor.submitSerial(constant("next"), null, null);
+		assertEquals("next", next.get(TIMEOUT, TimeUnit.MILLISECONDS));
+		try {
+			failed.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void serialQueueRejectsWhenFull() throws Exception {
+		blockAllThreads();
+		List<AsyncIpcExecutor.Task<String>> accepted = new ArrayList<AsyncIpcExecutor.Task<String>>();
+		for (int i = 0; i < AsyncIpcExecutor.QUEUE_CAPACITY; i++) {
+			accepted.add(mExecutor.submitSerial(constant("v" + i), null, null));
+		}
+		assertEquals(AsyncIpcExecutor.QUEUE_CAPACITY, mExecutor.getQueueDepth());
+		RecordingCallback<String> callback = new RecordingCallback<String>();
+		AsyncIpcExecutor.Task<String> rejected = mExecutor.submitSerial(constant("rejected"), null, callback);
+		assertTrue(rejected.isDone()); // 不阻塞调用线程；
+		assertTrue(callback.await());
+		assertTrue(callback.error.get() instanceof RejectedExecutionException);
+		assertEquals(1, mExecutor.getMetrics().rejectedCount);
+
+		mRelease.countDown();
+		for (int i = 0; i < accepted.size(); i++) {
+			assertEquals("v" + i, accepted.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+		}
+		assertEquals(AsyncIpcExecutor.QUEUE_CAPACITY, mExecutor.getMetrics().maxQueueDepth);
+	}
+
+	@Test
+	public void readQueueRejectsWhenFull() throws Exception {
+		blockAllThreads();
+		List<AsyncIpcExecutor.Task<String>> queued = new ArrayList<AsyncIpcExecutor.Task<String>>();
+		for (int i = 0; i < AsyncIpcExecutor.QUEUE_CAPACITY; i++) {
+			queued.add(mExecutor.submit("name", "queued" + i, constant("v"), null, null));
+			assertFalse(queued.get(i).isDone());
+		}
+		AsyncIpcExecutor.Task<String> rejected = mExecutor.submit("name", "rejected", constant("v"), null, null);
+		try {
+			rejected.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		mRelease.countDown();
+		for (AsyncIpcExecutor.Task<String> task : queued) {
+			task.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		// 被拒绝的读取不再占用合并的位置，下一次提交重新执行；
+		assertEquals("v", mExecutor.submit("name", "rejected", constant("v"), null, null).get(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * 让线程池的所有线程都阻塞在mRelease上，之后提交的任务都进入等待队列；
+	 */
+	private void blockAllThreads() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(AsyncIpcExecutor.THREAD_COUNT);
+		for (int i = 0; i < AsyncIpcExecutor.THREAD_COUNT; i++) {
+			mExecutor.submit("blocker", "blocker" + i, blockingCallable(started, new AtomicInteger(), "blocked"), null, null);
+		}
+		assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	private Callable<String> blockingCallable(final CountDownLatch started, final AtomicInteger calls, final String value) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				calls.incrementAndGet();
+				started.countDown();
+				mRelease.await();
+				return value;
+			}
+		};
+	}
+
+	private static Callable<String> constant(final String value) {
+		return new Callable<String>() {
+			@Override
+			public String call() {
+				return value;
+			}
+		};
+	}
+
+	private static final class RecordingCallback<T> implements MultiprocessSharedPreferences.AsyncCallback<T> {
+		final AtomicReference<T> result = new AtomicReference<T>();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		private final CountDownLatch mDone = new CountDownLatch(1);
+
+		@Override
+		public void onResult(T result) {
+			this.result.set(result);
+			mDone.countDown();
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			error.set(e);
+			mDone.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			return mDone.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+	}
+}
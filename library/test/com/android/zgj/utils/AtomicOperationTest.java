@@ -0,0 +1,139 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link AtomicOperation}的编码往返和计算测试，不依赖Android API，直接在JVM上运行；
+ */
+public class AtomicOperationTest {
+
+	@Test
+	public void roundTripOperands() {
+		Set<String> set = new HashSet<String>(Arrays.asList("a", "b"));
+		AtomicOperation operation = AtomicOperation.decode(AtomicOperation.encode(AtomicOperation.COMPARE_AND_SET, set, "update"));
+		assertNotNull(operation);
+		assertEquals(AtomicOperation.COMPARE_AND_SET, operation.operation);
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		assertTrue(operation.apply("key", new HashSet<String>(set), modified)); // 期望值和操作数都经过编码；
+		assertEquals("update", modified.get("key"));
+	}
+
+	@Test
+	public void decodeRejectsMalformedData() {
+		assertNull(AtomicOperation.decode(null));
+		assertNull(AtomicOperation.decode(new byte[] { 0, 0, 0, 5 }));
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("operation", "1"); // 类型不对；
+		assertNull(AtomicOperation.decode(PreferencesCodec.encodeMap(map)));
+		assertNull(AtomicOperation.decode(PreferencesCodec.encodeMap(new HashMap<String, Object>())));
+	}
+
+	@Test
+	public void roundTripResult() {
+		assertEquals(5L, AtomicOperation.decodeResult(AtomicOperation.encodeResult(5L)));
+		assertEquals(Boolean.FALSE, AtomicOperation.decodeResult(AtomicOperation.encodeResult(false)));
+		assertNull(AtomicOperation.decodeResult(AtomicOperation.encodeResult(null))); // getAndRemove()的key不存在；
+		assertNull(AtomicOperation.decodeResult(null));
+	}
+
+	@Test
+	public void incrementIntAndLong() {
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		AtomicOperation operation = decode(AtomicOperation.INCREMENT, null, 3);
+		assertTrue(operation.apply("int", null, modified)); // 不存在时按0计算；
+		assertEquals(3, operation.result);
+		operation = decode(AtomicOperation.INCREMENT, null, -1);
+		assertTrue(operation.apply("int", 3, modified));
+		assertEquals(2, operation.result);
+		assertEquals(2, modified.get("int"));
+
+		operation = decode(AtomicOperation.INCREMENT, null, 1L);
+		assertTrue(operation.apply("long", Long.MAX_VALUE - 1, modified));
+		assertEquals(Long.MAX_VALUE, operation.result);
+	}
+
+	@Test
+	public void incrementRejectsTypeMismatch() {
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		AtomicOperation operation = decode(AtomicOperation.INCREMENT, null, 1);
+		assertFalse(operation.apply("key", 1L, modified));
+		assertNotNull(operation.error);
+		operation = decode(AtomicOperation.INCREMENT, null, "1");
+		assertFalse(operation.apply("key", null, modified));
+		assertNotNull(operation.error);
+		assertTrue(modified.isEmpty());
+	}
+
+	@Test
+	public void compareAndSet() {
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		AtomicOperation operation = decode(AtomicOperation.COMPARE_AND_SET, "old", "new");
+		assertFalse(operation.apply("key", "other", modified));
+		assertEquals(Boolean.FALSE, operation.result);
+		assertNull(operation.error); // 比较不相等不是错误；
+		assertTrue(modified.isEmpty());
+
+		operation = decode(AtomicOperation.COMPARE_AND_SET, null, 1); // 期望key不存在；
+		assertTrue(operation.apply("key", null, modified));
+		assertEquals(Boolean.TRUE, operation.result);
+		assertEquals(1, modified.get("key"));
+
+		operation = decode(AtomicOperation.COMPARE_AND_SET, 1, null); // 相等时删除；
+		assertTrue(operation.apply("key", 1, modified));
+		assertTrue(modified.containsKey("key"));
+		assertNull(modified.get("key"));
+	}
+
+	@Test
+	public void putIfAbsent() {
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		AtomicOperation operation = decode(AtomicOperation.PUT_IF_ABSENT, null, "value");
+		assertFalse(operation.apply("key", "existing", modified));
+		assertEquals("existing", operation.result);
+		assertTrue(modified.isEmpty());
+		assertTrue(operation.apply("key", null, modified));
+		assertEquals("value", operation.result);
+		assertEquals("value", modified.get("key"));
+	}
+
+	@Test
+	public void getAndRemove() {
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		AtomicOperation operation = decode(AtomicOperation.GET_AND_REMOVE, null, null);
+		assertFalse(operation.apply("key", null, modified));
+		assertNull(operation.result);
+		assertNull(operation.error);
+		assertTrue(operation.apply("key", 1.5F, modified));
+		assertEquals(1.5F, operation.result);
+		assertTrue(modified.containsKey("key"));
+		assertNull(modified.get("key"));
+	}
+
+	@Test
+	public void unknownOperationIsAnError() {
+		AtomicOperation operation = decode(99, null, 1);
+		assertFalse(operation.apply("key", null, new HashMap<String, Object>()));
+		assertNotNull(operation.error);
+	}
+
+	/**
+	 * 与ContentProvider收到的一样，经过一次编码；
+	 */
+	private static AtomicOperation decode(int operation, Object expect, Object operand) {
+		return AtomicOperation.decode(AtomicOperation.encode(operation, expect, operand));
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * {@link BatchJournal}的编码和重做日志测试，直接读写临时目录，不依赖Android API；
+ */
+public class BatchJournalTest {
+	private File mDir;
+
+	@Before
+	public void setUp() throws IOException {
+		mDir = File.createTempFile("batch", "");
+		mDir.delete();
+		mDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(mDir);
+	}
+
+	@Test
+	public void roundTripEntries() {
+		List<BatchJournal.Entry> entries = createEntries();
+		assertEntriesEqual(entries, BatchJournal.decode(BatchJournal.encode(entries)));
+		assertEntriesEqual(new ArrayList<BatchJournal.Entry>(), BatchJournal.decode(BatchJournal.encode(new ArrayList<BatchJournal.Entry>())));
+	}
+
+	@Test
+	public void decodeRejectsMalformedData() {
+		try {
+			BatchJournal.decode(new byte[] { 0, 0, 0, 2, 0 }); // 数量为2，后面的数据不完整；
+			fail();
+		} catch (IllegalArgumentException e) {
+			// 预期；
+		}
+		try {
+			BatchJournal.decode(new byte[] { -1, -1, -1, -1 });
+			fail();
+		} catch (IllegalArgumentException e) {
+			// 预期；
+		}
+	}
+
+	@Test
+	public void writeAndRead() throws IOException {
+		byte[] data = BatchJournal.encode(createEntries());
+		File file = BatchJournal.write(new File(mDir, "sub"), 7, data); // 目录不存在时创建；
+		assertTrue(Arrays.equals(data, BatchJournal.read(file)));
+	}
+
+	@Test
+	public void readRejectsCorruptedData() throws IOException {
+		byte[] data = BatchJournal.encode(createEntries());
+		File file = BatchJournal.write(mDir, 1, data);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - 1);
+			int last = raf.read();
+			raf.seek(raf.length() - 1);
+			raf.write(last ^ 0xFF); // 数据被改动，CRC32校验不通过；
+		} finally {
+			raf.close();
+		}
+		assertNull(BatchJournal.read(file));
+	}
+
+	@Test
+	public void readRejectsTruncatedData() throws IOException {
+		File file = BatchJournal.write(mDir, 1, BatchJournal.encode(createEntries()));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3); // 写日志时崩溃；
+		} finally {
+			raf.close();
+		}
+		assertNull(BatchJournal.read(file));
+		assertNull(BatchJournal.read(new File(mDir, "missing")));
+	}
+
+	@Test
+	public void listOrdersBySequence() throws IOException {
+		byte[] data = BatchJournal.encode(createEntries());
+		File third = BatchJournal.write(mDir, 100, data);
+		File first = BatchJournal.write(mDir, 2, data);
+		File second = BatchJournal.write(mDir, 10, data); // 按数值而不是文件名排序；
+		touch(new File(mDir, "batch-x.journal"));
+		touch(new File(mDir, "other.txt"));
+		assertEquals(Arrays.asList(first, second, third), BatchJournal.list(mDir));
+		assertTrue(BatchJournal.list(new File(mDir, "missing")).isEmpty());
+	}
+
+	@Test
+	public void rewriteKeepsSequenceAndReplacesData() throws IOException {
+		List<BatchJournal.Entry> entries = createEntries();
+		File file = BatchJournal.write(mDir, 5, BatchJournal.encode(entries));
+		List<BatchJournal.Entry> remaining = entries.subList(1, entries.size()); // 第一个name已写入；
+		BatchJournal.rewrite(file, BatchJournal.encode(remaining));
+		assertEquals(Arrays.asList(file), BatchJournal.list(mDir));
+		assertEntriesEqual(remaining, BatchJournal.decode(BatchJournal.read(file)));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void listDeletesLeftoverOfInterruptedRewrite() throws IOException {
+		byte[] data = BatchJournal.encode(createEntries());
+		File file = BatchJournal.write(mDir, 3, data);
+		File tmp = new File(file.getPath() + ".tmp");
+		touch(tmp); // rewrite()写临时文件时崩溃；
+		assertEquals(Arrays.asList(file), BatchJournal.list(mDir));
+		assertFalse(tmp.exists());
+		assertTrue(Arrays.equals(data, BatchJournal.read(file))); // 原日志仍然完整；
+	}
+
+	private static List<BatchJournal.Entry> createEntries() {
+		List<BatchJournal.Entry> entries = new ArrayList<BatchJournal.Entry>();
+		HashMap<String, Object> modified = new HashMap<String, Object>();
+		modified.put("string", "value");
+		modified.put("int", 1);
+		modified.put("removed", null);
+		entries.add(new BatchJournal.Entry("first", 0, false, modified));
+		modified = new HashMap<String, Object>();
+		modified.put("set", new HashSet<String>(Arrays.asList("a", "中文")));
+		entries.add(new BatchJournal.Entry("second", 4, true, modified));
+		entries.add(new BatchJournal.Entry("third", 0, true, new HashMap<String, Object>())); // 只有clear()；
+		return entries;
+	}
+
+	private static void assertEntriesEqual(List<BatchJournal.Entry> expected, List<BatchJournal.Entry> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).name, actual.get(i).name);
+			assertEquals(expected.get(i).mode, actual.get(i).mode);
+			assertEquals(expected.get(i).clear, actual.get(i).clear);
+			assertEquals(expected.get(i).modified, actual.get(i).modified);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			delete(files[i]);
+		}
+		file.delete();
+	}
+
+	private static void touch(File file) throws IOException {
+		new FileOutputStream(file).close();
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+/**
+ * {@link ChangeLog}的增量合并测试，不依赖Android API，直接在JVM上运行；<br>
+ * 返回null时客户端改为读取全部数据（ChangeSet.full）；
+ */
+public class ChangeLogTest {
+	private static final long GENERATION = 100;
+	private static final int MAX_SIZE = 4;
+	private static final int LARGE_VALUE_LENGTH = 16;
+
+	@Test
+	public void mergesChangesAfterSequence() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		log.add(1, false, values("a", 1, "b", 1));
+		log.add(2, false, values("a", 2));
+		log.add(3, false, values("b", null, "c", "x")); // 删除b；
+
+		ChangeLog.Changes changes = ChangeLog.getChangesSince(log, GENERATION, 3, GENERATION, 1);
+		assertNotNull(changes);
+		assertFalse(changes.clear);
+		assertEquals(values("a", 2, "b", null, "c", "x"), changes.modified);
+		assertTrue(changes.modified.containsKey("b"));
+
+		changes = ChangeLog.getChangesSince(log, GENERATION, 3, GENERATION, 0); // 从头合并，后面的覆盖前面的；
+		assertEquals(values("a", 2, "b", null, "c", "x"), changes.modified);
+	}
+
+	@Test
+	public void upToDateSequenceReturnsNoChanges() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		log.add(1, false, values("a", 1));
+		ChangeLog.Changes changes = ChangeLog.getChangesSince(log, GENERATION, 1, GENERATION, 1);
+		assertNotNull(changes);
+		assertFalse(changes.clear);
+		assertTrue(changes.modified.isEmpty());
+
+		changes = ChangeLog.getChangesSince(null, GENERATION, 0, GENERATION, 0); // 还没有写入过；
+		assertNotNull(changes);
+		assertTrue(changes.modified.isEmpty());
+	}
+
+	@Test
+	public void clearDropsEarlierChanges() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		log.add(1, false, values("a", 1));
+		log.add(2, true, values("b", 2)); // clear()之后写入b；
+		log.add(3, false, values("c", 3));
+		ChangeLog.Changes changes = ChangeLog.getChangesSince(log, GENERATION, 3, GENERATION, 0);
+		assertTrue(changes.clear);
+		assertEquals(values("b", 2, "c", 3), changes.modified);
+
+		changes = ChangeLog.getChangesSince(log, GENERATION, 3, GENERATION, 2); // clear()已同步过；
+		assertFalse(changes.clear);
+		assertEquals(values("c", 3), changes.modified);
+	}
+
+	@Test
+	public void generationChangeForcesFullSync() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		log.add(1, false, values("a", 1));
+		assertNull(ChangeLog.getChangesSince(log, GENERATION, 1, GENERATION - 1, 0)); // ContentProvider所在进程重启过；
+		assertNull(ChangeLog.getChangesSince(null, GENERATION, 0, GENERATION - 1, 0));
+	}
+
+	@Test
+	public void invalidSequenceForcesFullSync() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		log.add(1, false, values("a", 1));
+		assertNull(ChangeLog.getChangesSince(log, GENERATION, 1, GENERATION, -1));
+		assertNull(ChangeLog.getChangesSince(log, GENERATION, 1, GENERATION, 2)); // 比当前版本号还新；
+	}
+
+	@Test
+	public void trimmedLogForcesFullSync() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		for (int i = 1; i <= MAX_SIZE + 2; i++) {
+			log.add(i, false, values("key" + i, i));
+		}
+		// 最早的两条已丢弃，最早可以增量返回的序号是2；
+		assertNull(ChangeLog.getChangesSince(log, GENERATION, MAX_SIZE + 2, GENERATION, 1));
+		ChangeLog.Changes changes = ChangeLog.getChangesSince(log, GENERATION, MAX_SIZE + 2, GENERATION, 2);
+		assertNotNull(changes);
+		assertEquals(MAX_SIZE, changes.modified.size());
+		assertFalse(changes.modified.containsKey("key2"));
+		assertTrue(changes.modified.containsKey("key3"));
+	}
+
+	@Test
+	public void largeValueIsNotKept() {
+		ChangeLog log = new ChangeLog(0, MAX_SIZE, LARGE_VALUE_LENGTH);
+		log.add(1, false, values("a", 1));
+		log.add(2, false, values("large", "01234567890123456789"));
+		log.add(3, false, values("b", 3));
+		assertNull(ChangeLog.getChangesSince(log, GENERATION, 3, GENERATION, 1));
+		ChangeLog.Changes changes = ChangeLog.getChangesSince(log, GENERATION, 3, GENERATION, 2);
+		assertNotNull(changes);
+		assertEquals(values("b", 3), changes.modified);
+	}
+
+	private static HashMap<String, Object> values(Object... keysAndValues) {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return map;
+	}
+}
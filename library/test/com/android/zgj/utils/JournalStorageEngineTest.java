@@ -0,0 +1,116 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link JournalStorageEngine}的一致性测试，直接读写临时目录中的日志文件，不依赖Android API；
+ */
+public class JournalStorageEngineTest extends StorageEngineConformanceTest {
+	private File mDir;
+
+	@Override
+	protected StorageEngine createEngine() throws IOException {
+		mDir = File.createTempFile("journal", "");
+		mDir.delete();
+		mDir.mkdirs();
+		return new JournalStorageEngine(new File(mDir, "test.journal"));
+	}
+
+	@Override
+	protected StorageEngine reopenEngine(StorageEngine engine) {
+		((JournalStorageEngine) engine).unload(); // 关闭日志文件；
+		return new JournalStorageEngine(new File(mDir, "test.journal"));
+	}
+
+	@Override
+	protected boolean tearTail(StorageEngine engine) throws IOException {
+		((JournalStorageEngine) engine).unload();
+		FileOutputStream out = new FileOutputStream(new File(mDir, "test.journal"), true);
+		try {
+			out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 0, 5, 6 }); // 长度100的记录只写了一部分；
+		} finally {
+			out.close();
+		}
+		return true;
+	}
+
+	@Test
+	public void importReplacesLeftoverOfInterruptedImport() throws Exception {
+		createEngine();
+		File file = new File(mDir, "imported.journal");
+		FileOutputStream out = new FileOutputStream(new File(mDir, "imported.journal.import"));
+		try {
+			out.write(new byte[] { 1, 2, 3 }); // 上次导入中途崩溃留下的临时文件；
+		} finally {
+			out.close();
+		}
+		assertFalse(file.exists());
+		Map<String, Object> map = values("string", "value", "int", 1);
+		assertTrue(JournalStorageEngine.importFrom(map, file));
+		assertFalse(new File(mDir, "imported.journal.import").exists());
+		assertEquals(map, new HashMap<String, Object>(new JournalStorageEngine(file).getAll()));
+	}
+
+	@Test
+	public void memorySizeTracksLoadedValues() throws Exception {
+		JournalStorageEngine engine = (JournalStorageEngine) createEngine();
+		assertEquals(0, engine.getMemorySize());
+		assertTrue(engine.write(false, values("string", "value", "int", 1), true));
+		long size = engine.getMemorySize();
+		assertEquals(JournalStorageEngine.estimateSize("string", "value") + JournalStorageEngine.estimateSize("int", 1), size);
+		for (int i = 0; i < 100; i++) { // 覆盖写入使日志变大，但内存中的数据不变；
+			assertTrue(engine.write(false, values("int", i), false));
+		}
+		assertEquals(size, engine.getMemorySize());
+		assertTrue(engine.write(false, values("string", null), true));
+		assertEquals(JournalStorageEngine.estimateSize("int", 1), engine.getMemorySize());
+		assertTrue(engine.unload());
+		assertEquals(0, engine.getMemorySize());
+		engine.getAll(); // 重新加载；
+		assertEquals(JournalStorageEngine.estimateSize("int", 1), engine.getMemorySize());
+	}
+
+	@Test
+	public void invalidHeaderIsMovedAside() throws Exception {
+		createEngine();
+		File file = new File(mDir, "invalid.journal");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 9, 1, 2, 3 }); // 不认识的文件头；
+		} finally {
+			out.close();
+		}
+		JournalStorageEngine engine = new JournalStorageEngine(file);
+		assertTrue(engine.getAll().isEmpty());
+		File corrupt = new File(mDir, "invalid.journal.corrupt");
+		assertEquals(11, corrupt.length()); // 原文件保留，没有被新的文件头覆盖；
+		assertTrue(engine.write(false, values("a", "1"), true));
+		engine.unload();
+		assertEquals("1", new JournalStorageEngine(file).getString("a", null));
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = mDir == null ? null : mDir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		if (mDir != null) {
+			mDir.delete();
+		}
+	}
+}
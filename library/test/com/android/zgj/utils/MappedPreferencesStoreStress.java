@@ -0,0 +1,136 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link MappedPreferencesStore}的多进程一致性压力测试，在普通Linux/JVM上运行，不依赖Android API；<br>
+ * 一个写入进程不断写入整份数据（key的数量变化，文件随之扩大），多个读取进程同时读取，检查每次读到的都是某一次完整的写入，且不会比之前读到的旧；<br>
+ * 运行：java com.android.zgj.utils.MappedPreferencesStoreStress [读取进程数] [毫秒]，任一进程发现不一致时以非0退出；
+ */
+public final class MappedPreferencesStoreStress {
+	private static final String KEY_SEQUENCE = "sequence";
+	private static final int MIN_KEYS = 100;
+	private static final int KEY_RANGE = 3000;
+	static final long GENERATION = 1;
+
+	private MappedPreferencesStoreStress() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && "writer".equals(args[0])) {
+			System.exit(runWriter(new File(args[1]), Long.parseLong(args[2])));
+		} else if (args.length == 3 && "reader".equals(args[0])) {
+			System.exit(runReader(new File(args[1]), Long.parseLong(args[2])));
+		}
+		int readers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		long duration = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+		System.exit(run(readers, duration) ? 0 : 1);
+	}
+
+	/**
+	 * 在独立的JVM进程中启动一个写入方和readers个读取方，共用一个临时文件；
+	 *
+	 * @return 所有进程都正常结束；
+	 */
+	static boolean run(int readers, long duration) throws IOException, InterruptedException {
+		File file = File.createTempFile("mapped", ".mmap");
+		file.delete();
+		try {
+			List<Process> processes = new ArrayList<Process>();
+			processes.add(start("writer", file, duration));
+			for (int i = 0; i < readers; i++) {
+				processes.add(start("reader", file, duration));
+			}
+			boolean success = true;
+			for (Process process : processes) {
+				success &= process.waitFor() == 0;
+			}
+			return success;
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static Process start(String role, File file, long duration) throws IOException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), MappedPreferencesStoreStress.class.getName(), role, file.getPath(),
+				String.valueOf(duration));
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+
+	private static int runWriter(File file, long duration) throws IOException {
+		MappedPreferencesStore store = MappedPreferencesStore.openForWrite(file);
+		long end = System.currentTimeMillis() + duration;
+		int sequence = 0;
+		while (System.currentTimeMillis() < end) {
+			sequence++;
+			store.write(PreferencesCodec.encodeMap(createValues(sequence)), sequence, GENERATION);
+		}
+		store.close();
+		System.out.println("writer: " + sequence + " writes");
+		return 0;
+	}
+
+	private static int runReader(File file, long duration) throws InterruptedException {
+		MappedPreferencesStore store = null;
+		long end = System.currentTimeMillis() + duration;
+		while (store == null && System.currentTimeMillis() < end) { // 等写入方创建文件；
+			try {
+				store = MappedPreferencesStore.openForRead(file);
+			} catch (IOException e) {
+				Thread.sleep(10);
+			}
+		}
+		if (store == null) {
+			System.out.println("reader: store not created");
+			return 1;
+		}
+		int reads = 0;
+		int fallbacks = 0;
+		int last = 0;
+		while (System.currentTimeMillis() < end) {
+			Map<String, Object> values = store.read(GENERATION);
+			if (values == null) { // 正在写入或者还没有写入过，实际使用时改走跨进程读取；
+				fallbacks++;
+				continue;
+			}
+			reads++;
+			Object sequence = values.get(KEY_SEQUENCE);
+			if (!(sequence instanceof Integer) || !values.equals(createValues((Integer) sequence))) {
+				System.out.println("reader: inconsistent snapshot, sequence = " + sequence + ", size = " + values.size());
+				return 1;
+			}
+			if ((Integer) sequence < last) {
+				System.out.println("reader: out of order, " + sequence + " < " + last);
+				return 1;
+			}
+			last = (Integer) sequence;
+		}
+		store.close();
+		System.out.println("reader: " + reads + " reads, " + fallbacks + " fallbacks, last sequence = " + last);
+		return 0;
+	}
+
+	/**
+	 * 第sequence次写入的完整数据：每个值都是sequence，key的数量随sequence变化；
+	 */
+	static HashMap<String, Object> createValues(int sequence) {
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		int count = MIN_KEYS + sequence % KEY_RANGE;
+		for (int i = 0; i < count; i++) {
+			values.put("key" + i, sequence);
+		}
+		values.put(KEY_SEQUENCE, sequence);
+		return values;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * {@link MappedPreferencesStore}的测试，不依赖Android API；多进程部分见{@link MappedPreferencesStoreStress}；
+ */
+public class MappedPreferencesStoreTest {
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = File.createTempFile("mapped", ".mmap");
+		mFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	@Test
+	public void readerSeesLatestWriteAndGrowth() throws IOException {
+		MappedPreferencesStore writer = MappedPreferencesStore.openForWrite(mFile);
+		MappedPreferencesStore reader = MappedPreferencesStore.openForRead(mFile);
+		assertNull(reader.read(MappedPreferencesStoreStress.GENERATION)); // 还没有写入过；
+		writer.write(PreferencesCodec.encodeMap(MappedPreferencesStoreStress.createValues(1)), 1, MappedPreferencesStoreStress.GENERATION);
+		assertEquals(MappedPreferencesStoreStress.createValues(1), new HashMap<String, Object>(reader.read(MappedPreferencesStoreStress.GENERATION)));
+		writer.write(PreferencesCodec.encodeMap(MappedPreferencesStoreStress.createValues(2999)), 2, MappedPreferencesStoreStress.GENERATION); // 超过初始大小，文件扩大；
+		assertEquals(MappedPreferencesStoreStress.createValues(2999), new HashMap<String, Object>(reader.read(MappedPreferencesStoreStress.GENERATION)));
+		writer.close();
+		reader.close();
+	}
+
+	@Test
+	public void invalidateFallsBackToIpc() throws IOException {
+		MappedPreferencesStore writer = MappedPreferencesStore.openForWrite(mFile);
+		writer.write(PreferencesCodec.encodeMap(MappedPreferencesStoreStress.createValues(1)), 1, MappedPreferencesStoreStress.GENERATION);
+		MappedPreferencesStore reader = MappedPreferencesStore.openForRead(mFile);
+		writer.invalidate();
+		assertTrue(reader.isInvalidated());
+		assertNull(reader.read(MappedPreferencesStoreStress.GENERATION));
+		writer.close();
+		reader.close();
+	}
+
+	@Test
+	public void readerOnlyTrustsExpectedGeneration() throws IOException {
+		MappedPreferencesStore writer = MappedPreferencesStore.openForWrite(mFile);
+		writer.write(PreferencesCodec.encodeMap(MappedPreferencesStoreStress.createValues(1)), 1, 1);
+		MappedPreferencesStore reader = MappedPreferencesStore.openForRead(mFile);
+		assertNull(reader.read(2)); // 没有被generation 2的ContentProvider确认过；
+		assertEquals(1, reader.getGeneration());
+		writer.stamp(2);
+		assertEquals(MappedPreferencesStoreStress.createValues(1), new HashMap<String, Object>(reader.read(2)));
+		assertNull(reader.read(1));
+		writer.close();
+		reader.close();
+	}
+
+	@Test
+	public void multipleProcesses() throws Exception {
+		assertTrue(MappedPreferencesStoreStress.run(2, 1500));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * {@link PreferencesCodec}与Java序列化（原来的Bundle.putSerializable()）的大小和耗时对比，不依赖Android API；<br>
+ * 运行：java com.android.zgj.utils.PreferencesCodecBenchmark [key数量] [次数]，默认2000个混合类型的key，各2000次；
+ */
+public final class PreferencesCodecBenchmark {
+
+	private PreferencesCodecBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		HashMap<String, Object> map = createMap(keyCount);
+
+		byte[] codec = PreferencesCodec.encodeMap(map);
+		byte[] serialized = serialize(map);
+		if (!map.equals(PreferencesCodec.decodeMap(codec)) || !map.equals(deserialize(serialized))) {
+			throw new AssertionError("round trip failed");
+		}
+		for (int i = 0; i < iterations; i++) { // 预热；
+			PreferencesCodec.decodeMap(PreferencesCodec.encodeMap(map));
+			deserialize(serialize(map));
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			codec = PreferencesCodec.encodeMap(map);
+		}
+		long codecEncode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			PreferencesCodec.decodeMap(codec);
+		}
+		long codecDecode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			serialized = serialize(map);
+		}
+		long serialEncode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			deserialize(serialized);
+		}
+		long serialDecode = System.nanoTime() - start;
+
+		System.out.println("keys = " + keyCount + ", iterations = " + iterations);
+		print("PreferencesCodec", codec.length, codecEncode, codecDecode, iterations);
+		print("ObjectOutputStream", serialized.length, serialEncode, serialDecode, iterations);
+	}
+
+	/**
+	 * 与常见的配置文件接近：字符串、int、long、float、boolean和少量字符串集合；
+	 */
+	static HashMap<String, Object> createMap(int keyCount) {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < keyCount; i++) {
+			String key = "pref_key_" + i;
+			switch (i % 6) {
+				case 0:
+					map.put(key, "value_" + i);
+					break;
+				case 1:
+					map.put(key, i);
+					break;
+				case 2:
+					map.put(key, (long) i * 1000);
+					break;
+				case 3:
+					map.put(key, i / 3F);
+					break;
+				case 4:
+					map.put(key, i % 2 == 0);
+					break;
+				default:
+					map.put(key, new HashSet<String>(Arrays.asList("a" + i, "b" + i, "c" + i)));
+					break;
+			}
+		}
+		return map;
+	}
+
+	private static void print(String name, int size, long encodeNanos, long decodeNanos, int iterations) {
+		System.out.println(String.format("%-20s %8d bytes, encode %.3f ms, decode %.3f ms", name, size, encodeNanos / 1e6 / iterations, decodeNanos / 1e6 / iterations));
+	}
+
+	private static byte[] serialize(HashMap<String, Object> map) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(map);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
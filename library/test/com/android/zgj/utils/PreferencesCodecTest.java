@@ -0,0 +1,135 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link PreferencesCodec}的编解码往返测试，不依赖Android API，直接在JVM上运行；
+ */
+public class PreferencesCodecTest {
+
+	@Test
+	public void roundTripAllTypes() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("string", "value");
+		map.put("emptyString", "");
+		map.put("unicode", "中文é😀");
+		map.put("int", Integer.MIN_VALUE);
+		map.put("long", Long.MAX_VALUE);
+		map.put("float", -1.5F);
+		map.put("nan", Float.NaN);
+		map.put("true", true);
+		map.put("false", false);
+		map.put("set", new HashSet<String>(Arrays.asList("a", "b", "中文")));
+		map.put("emptySet", new HashSet<String>());
+		assertEquals(map, PreferencesCodec.decodeMap(PreferencesCodec.encodeMap(map)));
+	}
+
+	@Test
+	public void roundTripNullValues() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("removed", null);
+		map.put("kept", 1);
+		HashMap<String, Object> decoded = PreferencesCodec.decodeMap(PreferencesCodec.encodeMap(map));
+		assertEquals(map, decoded);
+		assertTrue(decoded.containsKey("removed")); // null表示删除，必须保留key；
+	}
+
+	@Test
+	public void roundTripEmptyMap() {
+		assertEquals(Collections.emptyMap(), PreferencesCodec.decodeMap(PreferencesCodec.encodeMap(Collections.<String, Object> emptyMap())));
+		assertNull(PreferencesCodec.decodeMap(null));
+	}
+
+	@Test
+	public void roundTripStringSet() {
+		Set<String> set = new HashSet<String>(Arrays.asList("x", "y", "", "中文"));
+		assertEquals(set, PreferencesCodec.decodeStringSet(PreferencesCodec.encodeStringSet(set)));
+		assertNull(PreferencesCodec.encodeStringSet(null));
+		assertNull(PreferencesCodec.decodeStringSet(null));
+	}
+
+	@Test
+	public void roundTripStringsKeepsOrderAndNulls() {
+		List<String> strings = Arrays.asList("b", null, "a", "b");
+		assertEquals(strings, PreferencesCodec.decodeStrings(PreferencesCodec.encodeStrings(strings)));
+	}
+
+	@Test
+	public void pagedEncodeMapCoversAllEntries() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < 1000; i++) {
+			map.put("key" + i, i % 2 == 0 ? (Object) ("value" + i) : (Object) i);
+		}
+		Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+		HashMap<String, Object> decoded = new HashMap<String, Object>();
+		List<Integer> pageSizes = new ArrayList<Integer>();
+		while (iterator.hasNext()) {
+			byte[] page = PreferencesCodec.encodeMap(iterator, 1024);
+			HashMap<String, Object> values = PreferencesCodec.decodeMap(page);
+			assertTrue("empty page", !values.isEmpty());
+			decoded.putAll(values);
+			pageSizes.add(page.length);
+		}
+		assertEquals(map, decoded);
+		assertTrue("not paged", pageSizes.size() > 1);
+		for (int i = 0; i < pageSizes.size() - 1; i++) { // 超过maxBytes之前最多多出一项；
+			assertTrue("page too small: " + pageSizes.get(i), pageSizes.get(i) >= 1024);
+			assertTrue("page too large: " + pageSizes.get(i), pageSizes.get(i) < 1024 + 64);
+		}
+	}
+
+	@Test
+	public void pagedEncodeMapKeepsOversizedEntry() {
+		char[] chars = new char[4096];
+		Arrays.fill(chars, 'x');
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("large", new String(chars));
+		Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+		assertEquals(map, PreferencesCodec.decodeMap(PreferencesCodec.encodeMap(iterator, 16)));
+		assertTrue(!iterator.hasNext());
+	}
+
+	@Test
+	public void pagedEncodeMapIsCompatibleWithEncodeMap() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("a", 1L);
+		map.put("b", null);
+		assertEquals(Arrays.toString(PreferencesCodec.encodeMap(map)), Arrays.toString(PreferencesCodec.encodeMap(map.entrySet().iterator(), Integer.MAX_VALUE)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void encodeUnsupportedType() {
+		PreferencesCodec.encodeMap(Collections.singletonMap("double", 1.0D));
+	}
+
+	@Test
+	public void decodeTruncatedData() {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("key", "value");
+		byte[] data = PreferencesCodec.encodeMap(map);
+		try {
+			PreferencesCodec.decodeMap(Arrays.copyOf(data, data.length - 1));
+			fail("truncated data decoded");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 每个{@link StorageEngine}实现都必须通过的一致性测试，子类提供具体的存储引擎；<br>
+ * 行为以系统SharedPreferences为准：null表示删除、clear()先于同一批的修改、类型不一致时抛出ClassCastException；
+ */
+public abstract class StorageEngineConformanceTest {
+
+	/**
+	 * @return 没有数据的存储引擎；
+	 */
+	protected abstract StorageEngine createEngine() throws Exception;
+
+	/**
+	 * @return 从存储中重新加载的同一份数据，模拟ContentProvider所在进程重启；
+	 */
+	protected abstract StorageEngine reopenEngine(StorageEngine engine) throws Exception;
+
+	/**
+	 * 在存储末尾追加一条写了一半的记录，模拟写入时进程崩溃；
+	 *
+	 * @return 存储引擎不会产生这种状态（例如整个文件原子替换）时返回false，跳过相关检查；
+	 */
+	protected abstract boolean tearTail(StorageEngine engine) throws Exception;
+
+	@Test
+	public void typedGetAndPut() throws Exception {
+		StorageEngine engine = createEngine();
+		Set<String> set = new HashSet<String>(Arrays.asList("a", "b"));
+		assertTrue(engine.write(false, values("string", "value", "int", 1, "long", 2L, "float", 3.5F, "boolean", true, "set", set), true));
+		assertEquals("value", engine.getString("string", null));
+		assertEquals(1, engine.getInt("int", 0));
+		assertEquals(2L, engine.getLong("long", 0L));
+		assertEquals(3.5F, engine.getFloat("float", 0F), 0F);
+		assertTrue(engine.getBoolean("boolean", false));
+		assertEquals(set, engine.getStringSet("set", null));
+		assertTrue(engine.contains("int"));
+		assertEquals(1, engine.get("int"));
+		assertEquals(2L, engine.get("long"));
+		assertEquals(set, engine.get("set"));
+		assertEquals(6, engine.getAll().size());
+		assertEquals(set, engine.getAll().get("set"));
+	}
+
+	@Test
+	public void missingKeyReturnsDefault() throws Exception {
+		StorageEngine engine = createEngine();
+		assertEquals("def", engine.getString("missing", "def"));
+		assertEquals(-1, engine.getInt("missing", -1));
+		assertEquals(-2L, engine.getLong("missing", -2L));
+		assertEquals(-3F, engine.getFloat("missing", -3F), 0F);
+		assertTrue(engine.getBoolean("missing", true));
+		assertNull(engine.getStringSet("missing", null));
+		assertFalse(engine.contains("missing"));
+		assertNull(engine.get("missing"));
+		assertTrue(engine.getAll().isEmpty());
+	}
+
+	@Test
+	public void nullValueRemovesKey() throws Exception {
+		StorageEngine engine = createEngine();
+		assertTrue(engine.write(false, values("a", "1", "b", 2), true));
+		assertTrue(engine.write(false, values("a", null), true));
+		assertFalse(engine.contains("a"));
+		assertNull(engine.getString("a", null));
+		assertEquals(Collections.singletonMap("b", 2), new HashMap<String, Object>(engine.getAll()));
+	}
+
+	@Test
+	public void clearAppliesBeforeModifications() throws Exception {
+		StorageEngine engine = createEngine();
+		assertTrue(engine.write(false, values("old", "1", "kept", "2"), true));
+		assertTrue(engine.write(true, values("kept", "3", "new", 4), true));
+		assertFalse(engine.contains("old"));
+		assertEquals("3", engine.getString("kept", null));
+		assertEquals(4, engine.getInt("new", 0));
+		assertEquals(2, engine.getAll().size());
+	}
+
+	@Test
+	public void typeMismatchThrowsClassCastException() throws Exception {
+		StorageEngine engine = createEngine();
+		assertTrue(engine.write(false, values("string", "value", "int", 1), true));
+		try {
+			engine.getInt("string", 0);
+			fail("getInt() on a String");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		try {
+			engine.getString("int", null);
+			fail("getString() on an Integer");
+		} catch (ClassCastException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void asyncWriteIsVisibleImmediatelyAndPersisted() throws Exception {
+		StorageEngine engine = createEngine();
+		assertTrue(engine.write(false, values("async", "1"), false));
+		assertEquals("1", engine.getString("async", null)); // 返回前修改必须对读取可见；
+		assertTrue(engine.write(false, values("sync", "2"), true));
+		engine = reopenEngine(engine);
+		assertEquals("1", engine.getString("async", null));
+		assertEquals("2", engine.getString("sync", null));
+	}
+
+	@Test
+	public void reopenKeepsAllTypes() throws Exception {
+		StorageEngine engine = createEngine();
+		Set<String> set = new HashSet<String>(Arrays.asList("x"));
+		assertTrue(engine.write(false, values("string", "value", "int", 1, "long", 2L, "float", 3.5F, "boolean", true, "set", set), true));
+		assertTrue(engine.write(false, values("int", null), true));
+		Map<String, ?> expected = new HashMap<String, Object>(engine.getAll());
+		engine = reopenEngine(engine);
+		assertEquals(expected, new HashMap<String, Object>(engine.getAll()));
+	}
+
+	@Test
+	public void tornTailIsDiscardedOnReload() throws Exception {
+		StorageEngine engine = createEngine();
+		assertTrue(engine.write(false, values("a", "1"), true));
+		assertTrue(engine.write(true, values("b", 2), true));
+		if (!tearTail(engine)) {
+			return;
+		}
+		engine = reopenEngine(engine);
+		assertEquals(Collections.singletonMap("b", 2), new HashMap<String, Object>(engine.getAll()));
+		// 截断后追加的修改不能接在损坏的记录后面；
+		assertTrue(engine.write(false, values("c", "3"), true));
+		engine = reopenEngine(engine);
+		assertEquals(2, engine.getInt("b", 0));
+		assertEquals("3", engine.getString("c", null));
+	}
+
+	/**
+	 * @param keysAndValues key, value, key, value...
+	 */
+	static Map<String, Object> values(Object... keysAndValues) {
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * 创建日期：2026年10月18日
+ */
+package com.android.zgj.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+
+/**
+ * 默认存储引擎（系统SharedPreferences）的一致性测试，在Robolectric中运行；<br>
+ * 系统SharedPreferences整个文件写入临时文件后替换，不会留下写了一半的记录，不检查末尾损坏；
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class SystemStorageEngineTest extends StorageEngineConformanceTest {
+	private static final String NAME = "conformance";
+
+	@Override
+	protected StorageEngine createEngine() {
+		StorageEngine engine = reopenEngine(null);
+		engine.write(true, Collections.<String, Object> emptyMap(), true);
+		return engine;
+	}
+
+	/**
+	 * 系统SharedPreferences在进程内按name缓存，重新获取得到的是同一份数据；
+	 */
+	@Override
+	protected StorageEngine reopenEngine(StorageEngine engine) {
+		SharedPreferences preferences = RuntimeEnvironment.application.getSharedPreferences(NAME, Context.MODE_PRIVATE);
+		return new MultiprocessSharedPreferences.SystemStorageEngine(preferences);
+	}
+
+	@Override
+	protected boolean tearTail(StorageEngine engine) {
+		return false;
+	}
+}